@@ -0,0 +1,345 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * A binary variant of the <code>log-index</code> file.
+ * <p>
+ * The transitions are stored as records of fixed size in
+ * <code>log-index.bin</code>: the position in the log file (long) followed by
+ * the number of the node ID (int, -1 if the output does not belong to any
+ * node). The node IDs are stored in <code>log-index.ids</code>, one per line
+ * in the order of their first use, i.e. the number of an ID is its line
+ * number. IDs are written before the first record using them.
+ * </p>
+ * <p>
+ * Compared to the text format there is nothing to parse, records are
+ * appended in batches and the transition at a certain position of the log
+ * file can be found by binary search.
+ * </p>
+ */
+final class BinaryIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(BinaryIndex.class.getName());
+
+    static final int RECORD_SIZE = 12;
+
+    private static final int NO_ID = -1;
+
+    private final File records;
+    private final File ids;
+
+    /**
+     * @param index
+     *     The text index file. The binary index files are located next to
+     *     it.
+     */
+    BinaryIndex(@Nonnull File index) {
+        this.records = new File(index + ".bin");
+        this.ids = new File(index + ".ids");
+    }
+
+    @Override
+    public String toString() {
+        return this.records.toString();
+    }
+
+    /**
+     * @return <code>true</code> if the binary index exists.
+     */
+    boolean exists() {
+        return this.records.isFile();
+    }
+
+    /**
+     * @return the length of the records file in bytes.
+     */
+    long length() {
+        return this.records.length();
+    }
+
+    /**
+     * Opens a writer appending to the index.
+     */
+    @Nonnull
+    Writer openWriter() throws IOException {
+        return new Writer();
+    }
+
+    /**
+     * Opens a reader starting at the given offset of the records file.
+     *
+     * @param offset
+     *     A multiple of the record size.
+     */
+    @Nonnull
+    Reader openReader(long offset) throws IOException {
+        FileChannel channel = FileChannel.open(records.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+            return new Reader(channel, offset);
+        }
+        catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens a reader starting at the last transition before the given
+     * position of the log file, i.e. all transitions which are not relevant
+     * for output starting at that position are skipped.
+     */
+    @Nonnull
+    Reader openReaderAt(long position) throws IOException {
+        long first;
+        try (FileChannel channel = FileChannel.open(records.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer record = ByteBuffer.allocate(8);
+            // find the first transition at or after the position
+            long low = 0;
+            long high = channel.size() / RECORD_SIZE;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                record.clear();
+                while (record.hasRemaining() && channel.read(record, mid * RECORD_SIZE + record.position()) >= 0) {
+                    // read fully
+                }
+                if (record.getLong(0) < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            first = Math.max(0, low - 1);
+        }
+        return openReader(first * RECORD_SIZE);
+    }
+
+    /*
+     * Reads all complete lines of the ids file.
+     */
+    private List<String> readIds() throws IOException {
+        List<String> result = new ArrayList<>();
+        readIds(result);
+        return result;
+    }
+
+    /*
+     * Adds all complete lines of the ids file to the given list and returns
+     * their length in bytes.
+     */
+    private long readIds(List<String> result) throws IOException {
+        if (!ids.isFile()) {
+            return 0;
+        }
+        byte[] content = Files.readAllBytes(ids.toPath());
+        int start = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                result.add(new String(content, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Appends transitions to the index.
+     * <p>
+     * Records are buffered and only written when the buffer is full or on
+     * {@link #flush()}. Not thread-safe.
+     * </p>
+     */
+    final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final OutputStream idsOs;
+        private final Map<String, Integer> numbers = new HashMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        private String lastId;
+
+        private Writer() throws IOException {
+            List<String> existingIds = new ArrayList<>();
+            long idsLength = readIds(existingIds);
+            for (int i = 0; i < existingIds.size(); i++) {
+                numbers.put(existingIds.get(i), i);
+            }
+            this.channel = FileChannel.open(records.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // drop an incomplete record of a previous writer
+                long size = channel.size() / RECORD_SIZE * RECORD_SIZE;
+                channel.truncate(size);
+                channel.position(size);
+                if (size > 0) {
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                    while (record.hasRemaining() && channel.read(record, size - RECORD_SIZE + record.position()) >= 0) {
+                        // read fully
+                    }
+                    int number = record.getInt(8);
+                    this.lastId = number >= 0 && number < existingIds.size() ? existingIds.get(number) : null;
+                }
+                FileOutputStream idsOut = new FileOutputStream(ids, true);
+                try {
+                    // drop an incomplete line of a previous writer, which the
+                    // next ID would be appended to otherwise
+                    idsOut.getChannel().truncate(idsLength);
+                }
+                catch (IOException ex) {
+                    idsOut.close();
+                    throw ex;
+                }
+                this.idsOs = idsOut;
+            }
+            catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * @return the node ID of the last transition written before this
+         *     writer has been opened.
+         */
+        @CheckForNull
+        String getLastId() {
+            return this.lastId;
+        }
+
+        void add(long position, @CheckForNull String id) throws IOException {
+            int number = NO_ID;
+            if (id != null) {
+                Integer n = numbers.get(id);
+                if (n == null) {
+                    n = numbers.size();
+                    idsOs.write((id + "\n").getBytes(StandardCharsets.UTF_8));
+                    numbers.put(id, n);
+                }
+                number = n;
+            }
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putLong(position).putInt(number);
+        }
+
+        /**
+         * Writes all buffered records.
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            }
+            finally {
+                try {
+                    channel.close();
+                }
+                finally {
+                    idsOs.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the transitions sequentially. An incomplete record at the end is
+     * not returned.
+     */
+    final class Reader implements TransitionReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 512);
+        private final long start;
+        private List<String> idList;
+
+        private long consumed = 0;
+        private long position = -1;
+        private String id;
+
+        private Reader(FileChannel channel, long start) throws IOException {
+            this.channel = channel;
+            this.start = start;
+            this.idList = readIds();
+            this.buffer.flip();
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                buffer.compact();
+                while (buffer.position() < RECORD_SIZE && channel.read(buffer) > 0) {
+                    // fill at least one record
+                }
+                buffer.flip();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    return false;
+                }
+            }
+            this.position = buffer.getLong();
+            this.id = getId(buffer.getInt());
+            this.consumed += RECORD_SIZE;
+            return true;
+        }
+
+        private String getId(int number) throws IOException {
+            if (number == NO_ID) {
+                return null;
+            }
+            if (number >= idList.size()) {
+                // written after this reader has been opened
+                idList = readIds();
+            }
+            if (number < 0 || number >= idList.size()) {
+                LOGGER.warning("Ignoring corrupt index file " + records + " at " + (start + consumed));
+                return null;
+            }
+            return idList.get(number);
+        }
+
+        @Override
+        public long getPosition() {
+            return this.position;
+        }
+
+        @Override
+        @CheckForNull
+        public String getId() {
+            return this.id;
+        }
+
+        @Override
+        public long getConsumedBytes() {
+            return this.consumed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
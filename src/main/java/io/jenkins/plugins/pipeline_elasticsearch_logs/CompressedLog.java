@@ -0,0 +1,275 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A seekable, block-compressed copy of a log file.
+ * <p>
+ * The content is split into blocks of fixed uncompressed size, each of which
+ * is compressed into an independent gzip member. The members are concatenated
+ * into a single file, which therefore is a regular gzip file that can be
+ * decompressed with standard tools. A separate block table file holds the
+ * offset of each member, so that reading at an arbitrary position only
+ * requires decompressing a single block. This way positions in the
+ * uncompressed log, like the ones stored in <code>log-index</code>, can be
+ * used unchanged.
+ * </p>
+ * <p>
+ * Block table format: magic number, block size (int), uncompressed length
+ * (long), number of blocks (int), followed by the offsets of all blocks
+ * and the length of the compressed file (long each).
+ * </p>
+ */
+final class CompressedLog {
+
+    private static final int MAGIC = 0x45534c42; // "ESLB"
+
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private final File data;
+    private final File blockTable;
+
+    // loaded lazily
+    private int blockSize;
+    private long length = -1;
+    private long[] offsets;
+
+    /**
+     * @param log
+     *     The uncompressed log file. The compressed files are located next
+     *     to it.
+     */
+    CompressedLog(@Nonnull File log) {
+        this.data = new File(log + ".gz");
+        this.blockTable = new File(log + ".gz-blocks");
+    }
+
+    @Override
+    public String toString() {
+        return this.data.toString();
+    }
+
+    /**
+     * @return <code>true</code> if the compressed log exists.
+     */
+    boolean exists() {
+        // the block table is moved into place after the data file
+        return this.blockTable.isFile() && this.data.isFile();
+    }
+
+    /**
+     * Compresses the given log file. The compressed files are replaced
+     * atomically, i.e. readers either see the complete result or nothing.
+     * The uncompressed log file is left unchanged.
+     */
+    static CompressedLog compress(@Nonnull File log) throws IOException {
+        return compress(log, DEFAULT_BLOCK_SIZE);
+    }
+
+    static CompressedLog compress(@Nonnull File log, int blockSize) throws IOException {
+        CompressedLog result = new CompressedLog(log);
+        File tmpData = new File(result.data + ".tmp");
+        File tmpBlockTable = new File(result.blockTable + ".tmp");
+        try {
+            long[] offsets = new long[16];
+            int blockCount = 0;
+            long length = 0;
+            byte[] block = new byte[blockSize];
+
+            try (InputStream in = new FileInputStream(log);
+                 FileOutputStream fos = new FileOutputStream(tmpData)) {
+                FileChannel channel = fos.getChannel();
+                while (true) {
+                    int n = in.readNBytes(block, 0, blockSize);
+                    if (n == 0) {
+                        break;
+                    }
+                    if (blockCount + 2 > offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[blockCount++] = channel.position();
+                    // a separate gzip member per block
+                    BlockOutputStream gzip = new BlockOutputStream(fos);
+                    gzip.write(block, 0, n);
+                    gzip.finishBlock();
+                    length += n;
+                }
+                offsets[blockCount] = channel.position();
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpBlockTable)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(blockSize);
+                out.writeLong(length);
+                out.writeInt(blockCount);
+                for (int i = 0; i <= blockCount; i++) {
+                    out.writeLong(offsets[i]);
+                }
+            }
+
+            Files.move(tmpData.toPath(), result.data.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpBlockTable.toPath(), result.blockTable.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return result;
+        }
+        finally {
+            Files.deleteIfExists(tmpData.toPath());
+            Files.deleteIfExists(tmpBlockTable.toPath());
+        }
+    }
+
+    /**
+     * @return the length of the uncompressed log.
+     */
+    synchronized long length() throws IOException {
+        loadBlockTable();
+        return this.length;
+    }
+
+    /**
+     * Opens a reader for the uncompressed content.
+     */
+    @Nonnull
+    LogReader openReader() throws IOException {
+        loadBlockTable();
+        return new BlockReader(FileChannel.open(data.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Writes the uncompressed content to the given file.
+     */
+    void decompressTo(@Nonnull File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(data), 8192)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private synchronized void loadBlockTable() throws IOException {
+        if (this.offsets != null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(blockTable))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid block table " + blockTable);
+            }
+            this.blockSize = in.readInt();
+            long length = in.readLong();
+            int blockCount = in.readInt();
+            long[] offsets = new long[blockCount + 1];
+            for (int i = 0; i <= blockCount; i++) {
+                offsets[i] = in.readLong();
+            }
+            this.length = length;
+            this.offsets = offsets;
+        }
+        catch (EOFException ex) {
+            throw new IOException("Truncated block table " + blockTable, ex);
+        }
+    }
+
+    /*
+     * Reads from the compressed file, caching the last decompressed block.
+     */
+    private final class BlockReader implements LogReader {
+
+        private final FileChannel channel;
+
+        private final byte[] block = new byte[blockSize];
+        private int blockIndex = -1;
+        private int blockLength = 0;
+
+        BlockReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(long position, byte[] b, int off, int len) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            int index = (int) (position / blockSize);
+            if (index != this.blockIndex) {
+                loadBlock(index);
+            }
+            int blockOffset = (int) (position - (long) index * blockSize);
+            int n = Math.min(len, this.blockLength - blockOffset);
+            System.arraycopy(this.block, blockOffset, b, off, n);
+            return n;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            byte[] buf = new byte[8192];
+            long transferred = 0;
+            while (transferred < count) {
+                int n = read(position + transferred, buf, 0, (int) Math.min(buf.length, count - transferred));
+                if (n < 0) {
+                    break;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                while (bb.hasRemaining()) {
+                    target.write(bb);
+                }
+                transferred += n;
+            }
+            return transferred;
+        }
+
+        private void loadBlock(int index) throws IOException {
+            this.blockIndex = -1;
+            long start = offsets[index];
+            int compressedLength = (int) (offsets[index + 1] - start);
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, start + compressed.position()) < 0) {
+                    throw new EOFException("Truncated compressed log " + data);
+                }
+            }
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()), 8192)) {
+                this.blockLength = in.readNBytes(this.block, 0, this.block.length);
+            }
+            this.blockIndex = index;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /*
+     * Writes a single gzip member without closing the underlying stream.
+     */
+    private static final class BlockOutputStream extends GZIPOutputStream {
+
+        BlockOutputStream(OutputStream out) throws IOException {
+            super(out, 8192);
+        }
+
+        void finishBlock() throws IOException {
+            finish();
+            // release native resources, close() is not called
+            def.end();
+        }
+    }
+}
@@ -30,6 +30,7 @@ package io.jenkins.plugins.pipeline_elasticsearch_logs;
 import com.google.common.collect.ImmutableMap;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -48,6 +49,9 @@ public class ConsoleNotes {
     private static final String POSITION_KEY = "position";
     private static final String NOTE_KEY = "note";
 
+    private static final byte[] PREAMBLE = ConsoleNote.PREAMBLE_STR.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] POSTAMBLE = ConsoleNote.POSTAMBLE_STR.getBytes(StandardCharsets.UTF_8);
+
     static void parse(byte[] b, int len, Map<String, Object> data, boolean saveAnnotations) {
         assert len > 0 && len <= b.length;
 
@@ -97,6 +101,58 @@ public class ConsoleNotes {
         }
     }
 
+    /**
+     * Writes the given line without console notes.
+     * <p>
+     * Byte-level equivalent of {@link ConsoleNote#removeNotes(String)}, i.e.
+     * the line is neither decoded nor copied. The segments outside of notes
+     * are written directly to the given stream. A line without notes is
+     * written with a single call.
+     * </p>
+     */
+    static void removeNotes(byte[] b, int len, OutputStream out) throws IOException {
+        int preamble = indexOf(b, 0, len, PREAMBLE);
+        if (preamble == -1) {
+            // Shortcut for the common case that we have no notes.
+            out.write(b, 0, len);
+            return;
+        }
+        int pos = 0;
+        while (preamble != -1) {
+            int postamble = indexOf(b, preamble + PREAMBLE.length, len, POSTAMBLE);
+            if (postamble == -1) {
+                // Malformed; keep the rest.
+                break;
+            }
+            out.write(b, pos, preamble - pos);
+            pos = postamble + POSTAMBLE.length;
+            preamble = indexOf(b, pos, len, PREAMBLE);
+        }
+        out.write(b, pos, len - pos);
+    }
+
+    /*
+     * Returns the position of the first occurrence of pattern in b between
+     * from (inclusive) and to (exclusive), or -1 if there is none.
+     */
+    private static int indexOf(byte[] b, int from, int to, byte[] pattern) {
+        byte first = pattern[0];
+        int last = to - pattern.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (b[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (b[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
     public static void write(Writer w, Map<String, Object> source) throws IOException {
         if (source == null) throw new NullPointerException("source is null");
         String message = (String) source.get(MESSAGE_KEY);
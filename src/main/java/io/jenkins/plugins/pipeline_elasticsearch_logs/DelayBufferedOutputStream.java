@@ -31,7 +31,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +49,23 @@ import jenkins.util.Timer;
  * even if idle and the buffer does not fill up. The automatic “flushing” does
  * <em>not</em> flush the underlying stream, for example via
  * {@code ProxyOutputStream.Flush}.
+ * <p>
+ * In contrast to the original, the streams do not schedule a timer task each.
+ * A single {@link Flusher} per JVM periodically flushes all registered streams
+ * whose deadline has passed.
+ * </p>
+ * <p>
+ * The buffer starts small and is adapted to the amount of output written
+ * between two scheduled flushes: it is doubled if it has been written out
+ * because it filled up and halved if it is mostly unused, within the bounds
+ * given by {@link Tuning} and a buffer memory budget shared by all streams of
+ * the JVM.
+ * </p>
+ * <p>
+ * Writers which collect output before writing it to the stream can pass a
+ * task which is run on each tick of the {@link Flusher}, before the buffer is
+ * flushed, to write out output they have held back for too long.
+ * </p>
  */
 final class DelayBufferedOutputStream extends BufferedOutputStream {
 
@@ -60,26 +82,49 @@ final class DelayBufferedOutputStream extends BufferedOutputStream {
                 10_000); // 10s
         float recurrencePeriodBackoff = Float.parseFloat(
                 System.getProperty(DelayBufferedOutputStream.class.getName() + ".recurrencePeriodBackoff", "1.05"));
-        int bufferSize = Integer.getInteger(DelayBufferedOutputStream.class.getName() + ".bufferSize", 1 << 16); // 64Kib
+        int bufferSize = Integer.getInteger(DelayBufferedOutputStream.class.getName() + ".bufferSize", 1 << 16); // 64Kib, maximum
+        int minBufferSize = Integer.getInteger(DelayBufferedOutputStream.class.getName() + ".minBufferSize", 1 << 12); // 4Kib, initial
+        long bufferBudget = Long.getLong(DelayBufferedOutputStream.class.getName() + ".bufferBudget", 1 << 26); // 64Mib, all streams of a JVM
         static final Tuning DEFAULT = new Tuning();
     }
 
     private final Tuning tuning;
     private long recurrencePeriod;
+    private final Flush flush;
+    private final Runnable onTick;
+    // bytes written since the buffer size has been adapted last
+    private long written;
+    private boolean closed;
 
     DelayBufferedOutputStream(OutputStream out) {
         this(out, Tuning.DEFAULT);
     }
 
     DelayBufferedOutputStream(OutputStream out, Tuning tuning) {
-        super(new FlushControlledOutputStream(out), tuning.bufferSize);
+        this(out, tuning, () -> {});
+    }
+
+    /**
+     * @param onTick
+     *     Run on each tick of the {@link Flusher} while the stream is
+     *     registered, without holding the monitor of the stream.
+     */
+    DelayBufferedOutputStream(OutputStream out, Runnable onTick) {
+        this(out, Tuning.DEFAULT, onTick);
+    }
+
+    private DelayBufferedOutputStream(OutputStream out, Tuning tuning, Runnable onTick) {
+        super(new FlushControlledOutputStream(out), Math.min(tuning.minBufferSize, tuning.bufferSize));
         this.tuning = tuning;
+        this.onTick = onTick;
         recurrencePeriod = tuning.minRecurrencePeriod;
+        flush = new Flush(this, buf.length);
         reschedule();
+        Flusher.INSTANCE.register(flush);
     }
 
     private void reschedule() {
-        Timer.get().schedule(new Flush(this), recurrencePeriod, TimeUnit.MILLISECONDS);
+        flush.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(recurrencePeriod);
         recurrencePeriod = Math.min((long) (recurrencePeriod * tuning.recurrencePeriodBackoff),
                 tuning.maxRecurrencePeriod);
     }
@@ -95,9 +140,62 @@ final class DelayBufferedOutputStream extends BufferedOutputStream {
         // FlushControlledOutputStream.flush.
     }
 
+    @Override
+    public synchronized void write(int b) throws IOException {
+        written++;
+        super.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        written += len;
+        super.write(b, off, len);
+    }
+
+    /**
+     * @return the current size of the buffer.
+     */
+    synchronized int getBufferSize() {
+        return buf.length;
+    }
+
+    /**
+     * Doubles the buffer if more than its size has been written since the last
+     * call, i.e. it has been written out because it filled up, as far as the
+     * budget allows. Halves it if less than a quarter of it has been used.
+     */
+    private synchronized void adaptBufferSize() {
+        if (closed) {
+            // the budget has been released already
+            return;
+        }
+        long n = written;
+        written = 0;
+        int size = buf.length;
+        if (n > size && size < tuning.bufferSize) {
+            int newSize = Math.min(size * 2, tuning.bufferSize);
+            if (Flusher.INSTANCE.reserve(newSize - size, tuning.bufferBudget)) {
+                buf = Arrays.copyOf(buf, newSize);
+            }
+        } else if (n < size / 4 && size > tuning.minBufferSize) {
+            int newSize = Math.max(size / 2, tuning.minBufferSize);
+            if (count <= newSize) {
+                buf = Arrays.copyOf(buf, newSize);
+                Flusher.INSTANCE.release(size - newSize);
+            }
+        }
+        flush.bufferSize = buf.length;
+    }
+
     void flushAndReschedule() {
-        // TODO as an optimization, avoid flushing the buffer if it was recently flushed
-        // anyway due to filling up
+        adaptBufferSize();
+        // avoid flushing the buffer if it was recently flushed anyway due to filling up
+        long lastWrite = ((FlushControlledOutputStream) out).lastWrite;
+        long period = TimeUnit.MILLISECONDS.toNanos(tuning.minRecurrencePeriod);
+        if (System.nanoTime() - lastWrite < period) {
+            flush.deadline = lastWrite + period;
+            return;
+        }
         try {
             flushBuffer();
         } catch (IOException x) {
@@ -106,28 +204,116 @@ final class DelayBufferedOutputStream extends BufferedOutputStream {
         reschedule();
     }
 
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            Flusher.INSTANCE.unregister(flush);
+        }
+        super.close();
+    }
+
     @Override
     public String toString() {
         return "DelayBufferedOutputStream[" + out + "]";
     }
 
-    private static final class Flush implements Runnable {
+    /**
+     * The registration of a stream with the {@link Flusher}.
+     */
+    private static final class Flush {
 
         /**
-         * Since there is no explicit close event, just keep flushing periodically until
+         * Since streams are not always closed, just keep flushing periodically until
          * the stream is collected.
          */
         private final Reference<DelayBufferedOutputStream> osr;
 
-        Flush(DelayBufferedOutputStream os) {
+        /** The {@link System#nanoTime} at which the buffer is flushed next. */
+        private volatile long deadline;
+
+        /** The size of the buffer, counted against the budget until unregistered. */
+        private volatile int bufferSize;
+
+        Flush(DelayBufferedOutputStream os, int bufferSize) {
             osr = new WeakReference<>(os);
+            this.bufferSize = bufferSize;
+        }
+
+    }
+
+    /**
+     * Flushes the buffers of all streams of this JVM whose deadline has passed.
+     * <p>
+     * Runs periodically on {@link Timer}, i.e. deadlines are coalesced to the
+     * granularity of the tick. The task is scheduled with the first stream.
+     * </p>
+     * <p>
+     * Also keeps track of the memory used by the buffers of the registered
+     * streams. The initial buffers are always granted.
+     * </p>
+     */
+    private static final class Flusher implements Runnable {
+
+        private static final long TICK = Long.getLong(DelayBufferedOutputStream.class.getName() + ".flushTick", 250);
+
+        static final Flusher INSTANCE = new Flusher();
+
+        private final Set<Flush> flushes = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong allocated = new AtomicLong();
+
+        void register(Flush flush) {
+            allocated.addAndGet(flush.bufferSize);
+            flushes.add(flush);
+            if (scheduled.compareAndSet(false, true)) {
+                Timer.get().scheduleWithFixedDelay(this, TICK, TICK, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void unregister(Flush flush) {
+            if (flushes.remove(flush)) {
+                release(flush.bufferSize);
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the given number of bytes fits into the
+         *     budget and has been added to the allocated bytes.
+         */
+        boolean reserve(int bytes, long budget) {
+            long current;
+            do {
+                current = allocated.get();
+                if (current + bytes > budget) {
+                    return false;
+                }
+            } while (!allocated.compareAndSet(current, current + bytes));
+            return true;
+        }
+
+        void release(int bytes) {
+            allocated.addAndGet(-bytes);
         }
 
         @Override
         public void run() {
-            DelayBufferedOutputStream os = osr.get();
-            if (os != null) {
-                os.flushAndReschedule();
+            long now = System.nanoTime();
+            for (Flush flush : flushes) {
+                DelayBufferedOutputStream os = flush.osr.get();
+                if (os == null) {
+                    unregister(flush);
+                    continue;
+                }
+                try {
+                    os.onTick.run();
+                    if (now - flush.deadline >= 0) {
+                        os.flushAndReschedule();
+                    }
+                } catch (RuntimeException x) {
+                    // must not cancel the periodic task
+                    LOGGER.log(Level.WARNING, "failed to flush " + os, x);
+                }
             }
         }
 
@@ -138,12 +324,16 @@ final class DelayBufferedOutputStream extends BufferedOutputStream {
 
         private final ThreadLocal<Boolean> enableFlush = ThreadLocal.withInitial(() -> true);
 
+        /** The {@link System#nanoTime} of the last write, i.e. when the buffer was written out last. */
+        volatile long lastWrite = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
         FlushControlledOutputStream(OutputStream out) {
             super(out);
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
+            lastWrite = System.nanoTime();
             out.write(b, off, len); // super method writes one byte at a time!
         }
 
@@ -0,0 +1,91 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.util.Arrays;
+
+/**
+ * A compact histogram of durations with logarithmic buckets.
+ * <p>
+ * Each power of two is divided into {@value #SUB_BUCKETS} buckets, i.e.
+ * percentiles are accurate within about 19% regardless of the magnitude of
+ * the durations. A few hundred bytes are sufficient for any duration. Not
+ * thread-safe.
+ * </p>
+ */
+final class DurationHistogram {
+
+    static final int SUB_BUCKETS = 4;
+
+    private int[] counts = new int[0];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Adds a duration in milliseconds. Negative durations are counted as 0.
+     */
+    void add(long duration) {
+        duration = Math.max(duration, 0);
+        int bucket = bucket(duration);
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, bucket + 1);
+        }
+        counts[bucket]++;
+        count++;
+        total += duration;
+        max = Math.max(max, duration);
+    }
+
+    long getCount() {
+        return this.count;
+    }
+
+    long getTotal() {
+        return this.total;
+    }
+
+    long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Returns the given percentile, i.e. the upper bound of the bucket
+     * containing it, but not more than the maximum duration added.
+     *
+     * @param percentile
+     *     A value between 0 and 100.
+     * @return the percentile or 0 if the histogram is empty.
+     */
+    long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucket(long duration) {
+        int bucket = (int) (Math.log(duration + 1.0) / Math.log(2) * SUB_BUCKETS);
+        // correct rounding errors, the bounds are authoritative
+        while (bucket > 0 && duration <= upperBound(bucket - 1)) {
+            bucket--;
+        }
+        while (duration > upperBound(bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /*
+     * The largest duration in the given bucket.
+     */
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(2, (bucket + 1.0) / SUB_BUCKETS)) - 2;
+    }
+}
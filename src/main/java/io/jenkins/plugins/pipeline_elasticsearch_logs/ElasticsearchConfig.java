@@ -23,6 +23,12 @@ public class ElasticsearchConfig extends AbstractDescribableImpl<ElasticsearchCo
     private static final boolean DEFAULT_WRITE_ANNOTATIONS_TO_LOG_FILE = true;
     private boolean writeAnnotationsToLogFile = DEFAULT_WRITE_ANNOTATIONS_TO_LOG_FILE;
 
+    private static final boolean DEFAULT_COMPRESS_COMPLETED_LOGS = false;
+    private boolean compressCompletedLogs = DEFAULT_COMPRESS_COMPLETED_LOGS;
+
+    private static final boolean DEFAULT_ELASTICSEARCH_ONLY = false;
+    private boolean elasticsearchOnly = DEFAULT_ELASTICSEARCH_ONLY;
+
     private RunIdProvider runIdProvider = new DefaultRunIdProvider("");
 
     private EventWriterConfig eventWriterConfig;
@@ -30,6 +36,11 @@ public class ElasticsearchConfig extends AbstractDescribableImpl<ElasticsearchCo
     private static final int DEFAULT_SPLIT_MESSAGES_LONGER_THAN = 2000;
     private int splitMessagesLongerThan = DEFAULT_SPLIT_MESSAGES_LONGER_THAN;
 
+    private static final int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+    private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+
+    private int compactAtomNodesShorterThan;
+
     @DataBoundConstructor
     public ElasticsearchConfig() {
     }
@@ -61,6 +72,24 @@ public class ElasticsearchConfig extends AbstractDescribableImpl<ElasticsearchCo
         this.splitMessagesLongerThan = chars;
     }
 
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    @DataBoundSetter
+    public void setMaxLineLength(int bytes) {
+        this.maxLineLength = bytes;
+    }
+
+    public int getCompactAtomNodesShorterThan() {
+        return compactAtomNodesShorterThan;
+    }
+
+    @DataBoundSetter
+    public void setCompactAtomNodesShorterThan(int millis) {
+        this.compactAtomNodesShorterThan = millis;
+    }
+
     public boolean isSaveAnnotations() {
         return saveAnnotations;
     }
@@ -79,6 +108,24 @@ public class ElasticsearchConfig extends AbstractDescribableImpl<ElasticsearchCo
         this.writeAnnotationsToLogFile = writeAnnotationsToLogFile;
     }
 
+    public boolean isCompressCompletedLogs() {
+        return compressCompletedLogs;
+    }
+
+    @DataBoundSetter
+    public void setCompressCompletedLogs(boolean compressCompletedLogs) {
+        this.compressCompletedLogs = compressCompletedLogs;
+    }
+
+    public boolean isElasticsearchOnly() {
+        return elasticsearchOnly;
+    }
+
+    @DataBoundSetter
+    public void setElasticsearchOnly(boolean elasticsearchOnly) {
+        this.elasticsearchOnly = elasticsearchOnly;
+    }
+
     @PostConstruct
     protected void init() {
         if (runIdProvider == null)
@@ -99,10 +146,22 @@ public class ElasticsearchConfig extends AbstractDescribableImpl<ElasticsearchCo
             return DEFAULT_WRITE_ANNOTATIONS_TO_LOG_FILE;
         }
 
+        public boolean defaultCompressCompletedLogs() {
+            return DEFAULT_COMPRESS_COMPLETED_LOGS;
+        }
+
+        public boolean defaultElasticsearchOnly() {
+            return DEFAULT_ELASTICSEARCH_ONLY;
+        }
+
         public int defaultSplitMessagesLongerThan() {
             return DEFAULT_SPLIT_MESSAGES_LONGER_THAN;
         }
 
+        public int defaultMaxLineLength() {
+            return DEFAULT_MAX_LINE_LENGTH;
+        }
+
         public EventWriterConfig defaultEventWriterConfig() {
             try {
                 return new IndexAPIEventWriterConfig(null, null, null, null, null, null);
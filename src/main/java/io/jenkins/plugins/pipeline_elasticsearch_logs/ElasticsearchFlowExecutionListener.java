@@ -1,8 +1,6 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,26 +18,27 @@ public class ElasticsearchFlowExecutionListener extends FlowExecutionListener {
 
     private static final Logger LOGGER = Logger.getLogger(ElasticsearchFlowExecutionListener.class.getName());
 
-    private final Map<String, ElasticsearchGraphListener> graphListenersByRunId = new HashMap<>();
-
     @Override
     public void onCreated(FlowExecution execution) {
         try {
             Queue.Executable exec = execution.getOwner().getExecutable();
             if (exec instanceof WorkflowRun) {
                 Run<?, ?> run = (Run<?, ?>)exec;
-                String runId = RunUtils.getUniqueRunId(run);
 
-                ElasticsearchRunConfig config = ElasticsearchRunConfig.get(run);
+                RunRegistry.Entry entry = RunRegistry.get(run);
+                ElasticsearchRunConfig config = entry.getConfig();
                 if (config == null) {
                     return;
                 }
 
-                ElasticsearchGraphListener graphListener = this.graphListenersByRunId.get(runId);
-                if (graphListener == null) {
-                    graphListener = new ElasticsearchGraphListener(config);
-                    this.graphListenersByRunId.put(runId, graphListener);
-                    execution.addListener(graphListener);
+                if (entry.getGraphListener() == null) {
+                    ElasticsearchGraphListener graphListener = new ElasticsearchGraphListener(config);
+                    if (entry.setGraphListener(graphListener)) {
+                        execution.addListener(graphListener);
+                    } else {
+                        // registered concurrently
+                        closeGraphListener(graphListener);
+                    }
                 }
             }
         } catch (IOException e) {
@@ -53,21 +52,36 @@ public class ElasticsearchFlowExecutionListener extends FlowExecutionListener {
             Queue.Executable exec = execution.getOwner().getExecutable();
             if (exec instanceof Run) {
                 Run<?, ?> run = (Run<?, ?>)exec;
-                String runId = RunUtils.getUniqueRunId(run);
 
-                ElasticsearchGraphListener graphListener = this.graphListenersByRunId.remove(runId);
+                RunRegistry.Entry entry = RunRegistry.getIfPresent(RunUtils.getUniqueRunId(run));
+                if (entry == null) {
+                    return;
+                }
+                ElasticsearchGraphListener graphListener = entry.removeGraphListener();
                 if (graphListener != null) {
                     execution.removeListener(graphListener);
+                    // the run listener waits for the pending events at the end of the run
                     try {
-                        graphListener.close();
+                        graphListener.closeAsync();
+                        entry.setClosingGraphListener(graphListener);
                     }
                     catch (Exception ex) {
                         LOGGER.log(Level.SEVERE, "Failed to close flow graph listener", ex);
                     }
                 }
+                entry.clearNodeContexts();
             }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Failed to get Executable of FlowExecution.", e);
         }
     }
+
+    private static void closeGraphListener(ElasticsearchGraphListener graphListener) {
+        try {
+            graphListener.close();
+        }
+        catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Failed to close flow graph listener", ex);
+        }
+    }
 }
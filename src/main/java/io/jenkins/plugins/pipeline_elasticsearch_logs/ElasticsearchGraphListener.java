@@ -1,13 +1,24 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jenkinsci.plugins.pipeline.StageStatus;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
 import org.jenkinsci.plugins.workflow.actions.TimingAction;
 import org.jenkinsci.plugins.workflow.actions.WarningAction;
 import org.jenkinsci.plugins.workflow.flow.GraphListener;
@@ -19,10 +30,44 @@ import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.graph.FlowStartNode;
 import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
 
+import com.google.common.util.concurrent.MoreExecutors;
+
+import hudson.model.Computer;
 import hudson.model.Result;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.SerialExecutor;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+import jenkins.util.Timer;
 import net.sf.json.JSONArray;
 
+/**
+ * Sends an event for the start and end of each node of the flow graph.
+ * <p>
+ * {@link #onNewHead(FlowNode)} is called on the CPS VM thread, which must not
+ * be blocked by sending events. Only the time of an event and the information
+ * about the new node needed for its start event are captured there, i.e. the
+ * same as in synchronous mode. The events are created and sent by a serial
+ * executor per run, i.e. the events of a run are sent in order. If the system property
+ * <code>io.jenkins.plugins.pipeline_elasticsearch_logs.ElasticsearchGraphListener.synchronous</code>
+ * is set, events are sent on the CPS VM thread instead, i.e. in a fixed order
+ * relative to the log output. Either way, events are sent one at a time.
+ * </p>
+ * <p>
+ * The durations and results of stages and steps are aggregated while the run
+ * is running and sent as a single summary event at its end.
+ * </p>
+ * <p>
+ * If configured, the start event of an atom node is held back for a short
+ * time. If the node ends meanwhile, a single event with the data of both is
+ * sent instead. The held back events are kept in the order of their deadlines,
+ * and a single timer task per listener sends those which are due via the
+ * executor.
+ * </p>
+ * <p>
+ * Closing the listener does not wait for the events still pending: the
+ * executor sends them and closes the writer afterwards. The run listener waits
+ * for this at the end of the run, see {@link #awaitClosed()}.
+ * </p>
+ */
 public class ElasticsearchGraphListener
     implements GraphListener.Synchronous, AutoCloseable
 {
@@ -38,6 +83,10 @@ public class ElasticsearchGraphListener
 
     private static final String FLOW_GRAPH_ATOM_NODE_START = "flowGraph::atomNodeStart";
 
+    private static final String FLOW_GRAPH_ATOM_NODE = "flowGraph::atomNode";
+
+    private static final String FLOW_GRAPH_SUMMARY = "flowGraph::summary";
+
     private static final String PREDECESSORS = "predecessors";
 
     private static final String ERROR_MESSAGE = "errorMessage";
@@ -52,22 +101,82 @@ public class ElasticsearchGraphListener
 
     private static final Logger LOGGER = Logger.getLogger(ElasticsearchGraphListener.class.getName());
 
+    /**
+     * The maximum time to wait for pending events to be sent after the
+     * listener has been closed. Events still pending afterwards are sent later.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = Long.getLong(ElasticsearchGraphListener.class.getName() + ".closeTimeoutSeconds", 30);
+
     private final EventWriter writer;
     private final ElasticsearchRunConfig config;
-
-    private volatile boolean isClosed = false;
+    private final Executor executor;
+    // only accessed by the executor
+    private final PerformanceSummary summary = new PerformanceSummary();
+    // the atom node start events held back, ordered by their deadline, only
+    // accessed by the executor
+    private final Map<FlowNode, NodeStart> pendingStarts = new LinkedHashMap<>();
+    // whether the timer task sending the pending start events is scheduled,
+    // only accessed by the executor
+    private boolean pendingStartsCheckScheduled;
+
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+    // sends the pending events and closes the writer, run by the executor
+    private final FutureTask<Void> closing;
 
     public ElasticsearchGraphListener(ElasticsearchRunConfig config) throws IOException {
         this.config = config;
         this.writer = config.createEventWriter();
+        // serial in synchronous mode too, as the timer sends held back events
+        this.executor = new SerialExecutor(Boolean.getBoolean(ElasticsearchGraphListener.class.getName() + ".synchronous")
+            ? MoreExecutors.directExecutor()
+            : Computer.threadPoolForRemoting);
+        this.closing = new FutureTask<>(() -> {
+            for (NodeStart start : pendingStarts.values()) {
+                sendPendingNodeStart(start);
+            }
+            pendingStarts.clear();
+            this.writer.close();
+            return null;
+        });
     }
 
     @Override
     public void onNewHead(FlowNode node) {
-        if (this.isClosed) {
+        if (this.isClosed.get()) {
             return;
         }
 
+        // only the data of a start event is captured here, end events are
+        // created asynchronously as they need information added later
+        Instant now = Instant.now();
+        NodeStart start = node instanceof AtomNode || node instanceof BlockStartNode
+            ? new NodeStart(node, now, System.nanoTime(), createNodeInfo(node), getPredecessorIds(node))
+            : null;
+        executor.execute(() -> send(node, start, now));
+    }
+
+    /**
+     * The data of a start event captured when the node has been added, as
+     * actions added later, e.g. the label of a stage, must not change it.
+     */
+    private static final class NodeStart {
+        final FlowNode node;
+        final Instant time;
+        // the System.nanoTime() of the event, for holding it back
+        final long nanoTime;
+        final NodeInfo nodeInfo;
+        final List<String> predecessorIds;
+
+        NodeStart(FlowNode node, Instant time, long nanoTime, NodeInfo nodeInfo, List<String> predecessorIds) {
+            this.node = node;
+            this.time = time;
+            this.nanoTime = nanoTime;
+            this.nodeInfo = nodeInfo;
+            this.predecessorIds = predecessorIds;
+        }
+    }
+
+    private void send(FlowNode node, NodeStart start, Instant now) {
         try {
             // We cannot send StepEndNodes directly since information is missing, like an ErrorAction (see example below).
             // There might be more cases which need to be considered like this. Almost all parents change compared to their initial state
@@ -78,17 +187,20 @@ public class ElasticsearchGraphListener
             // CredentialNotFoundException, actions: TimingAction,ErrorAction]
             for (FlowNode parent : node.getParents()) {
                 if (parent instanceof AtomNode) {
-                    sendAtomNodeEnd(parent, node);
+                    sendAtomNodeEnd(parent, node, now);
                 } else if (parent instanceof BlockEndNode) {
-                    sendNodeEnd((BlockEndNode<?>) parent);
+                    sendNodeEnd((BlockEndNode<?>) parent, now);
                 }
             }
 
-            if (node instanceof AtomNode || node instanceof BlockStartNode) {
-                sendNodeStart(node);
+            if (node instanceof AtomNode && config.getCompactAtomNodesShorterThan() > 0) {
+                holdNodeStart(start);
+            } else if (start != null) {
+                sendNodeStart(start);
             }
             if (node instanceof FlowEndNode) {
-                sendNodeEnd((FlowEndNode) node);
+                sendNodeEnd((FlowEndNode) node, now);
+                sendSummary(now);
             }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Failed to push data to Elasticsearch", e);
@@ -115,11 +227,75 @@ public class ElasticsearchGraphListener
         return "unknown";
     }
 
-    private void sendAtomNodeEnd(FlowNode node, FlowNode successor) throws IOException {
-        Map<String, Object> data = createData(node);
-        data.put(EVENT_TYPE, FLOW_GRAPH_ATOM_NODE_END);
-        data.put(RESULT, getStatus(node));
-        data.put(DURATION, getDuration(node, successor));
+    private void holdNodeStart(NodeStart start) {
+        // all events are held back equally long, i.e. the deadlines are in
+        // the order of the events
+        pendingStarts.put(start.node, start);
+        if (!pendingStartsCheckScheduled) {
+            schedulePendingStartsCheck(start);
+        }
+    }
+
+    /*
+     * Schedules the timer task sending the pending start events for the
+     * deadline of the given, i.e. the oldest, one.
+     */
+    private void schedulePendingStartsCheck(NodeStart oldest) {
+        long delay = oldest.nanoTime + getHoldNanos() - System.nanoTime();
+        Timer.get().schedule(
+            () -> executor.execute(this::sendDuePendingStarts),
+            Math.max(0, delay),
+            TimeUnit.NANOSECONDS
+        );
+        pendingStartsCheckScheduled = true;
+    }
+
+    private void sendDuePendingStarts() {
+        pendingStartsCheckScheduled = false;
+        long now = System.nanoTime();
+        Iterator<NodeStart> it = pendingStarts.values().iterator();
+        while (it.hasNext()) {
+            NodeStart start = it.next();
+            if (now - start.nanoTime < getHoldNanos()) {
+                schedulePendingStartsCheck(start);
+                return;
+            }
+            it.remove();
+            sendPendingNodeStart(start);
+        }
+    }
+
+    private long getHoldNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(config.getCompactAtomNodesShorterThan());
+    }
+
+    private void sendPendingNodeStart(NodeStart start) {
+        try {
+            sendNodeStart(start);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to push data to Elasticsearch", e);
+        }
+    }
+
+    private void sendAtomNodeEnd(FlowNode node, FlowNode successor, Instant now) throws IOException {
+        NodeStart start = pendingStarts.remove(node);
+        Map<String, Object> data;
+        if (start != null) {
+            // the start event has been held back, send both as one
+            data = createData(start.nodeInfo, start.predecessorIds, start.time);
+            data.put(EVENT_TYPE, FLOW_GRAPH_ATOM_NODE);
+        } else {
+            data = createData(node, now);
+            data.put(EVENT_TYPE, FLOW_GRAPH_ATOM_NODE_END);
+        }
+        String status = getStatus(node);
+        long duration = getDuration(node, successor);
+        data.put(RESULT, status);
+        data.put(DURATION, duration);
+        Object stepName = data.get(NodeInfo.STEP);
+        if (stepName != null) {
+            summary.addStep(stepName.toString(), duration, status);
+        }
         String errorMessage = getErrorMessage(node);
         if (errorMessage != null) {
             data.put(ERROR_MESSAGE, errorMessage);
@@ -128,14 +304,23 @@ public class ElasticsearchGraphListener
         writer.push(data);
     }
 
-    private void sendNodeEnd(BlockEndNode<?> node) throws IOException {
-        Map<String, Object> data = createData(node);
+    private void sendNodeEnd(BlockEndNode<?> node, Instant now) throws IOException {
+        Map<String, Object> data = createData(node, now);
         data.put(EVENT_TYPE, getEventType(node));
         FlowNode startNode = node.getStartNode();
         data.put(START_ID, startNode.getId());
 
-        data.put(RESULT, getStatus(node));
-        data.put(DURATION, getDuration(startNode, node));
+        String status = getStatus(node);
+        long duration = getDuration(startNode, node);
+        data.put(RESULT, status);
+        data.put(DURATION, duration);
+        if (NodeInfo.isStageNode(startNode)) {
+            summary.addStage(startNode.getAction(LabelAction.class).getDisplayName(), duration, status);
+        }
+        Object stepName = data.get(NodeInfo.STEP);
+        if (stepName != null) {
+            summary.addStep(stepName.toString(), duration, status);
+        }
 
         String errorMessage = getErrorMessage(node);
         if (errorMessage != null) {
@@ -145,10 +330,17 @@ public class ElasticsearchGraphListener
         writer.push(data);
     }
 
-    private void sendNodeStart(FlowNode node) throws IOException {
-        Map<String, Object> data = createData(node);
+    private void sendSummary(Instant now) throws IOException {
+        Map<String, Object> data = config.createData(now);
+        data.put(EVENT_TYPE, FLOW_GRAPH_SUMMARY);
+        summary.appendTo(data);
+        writer.push(data);
+    }
 
-        data.put(EVENT_TYPE, getEventType(node));
+    private void sendNodeStart(NodeStart start) throws IOException {
+        Map<String, Object> data = createData(start.nodeInfo, start.predecessorIds, start.time);
+
+        data.put(EVENT_TYPE, getEventType(start.node));
         writer.push(data);
     }
 
@@ -156,22 +348,35 @@ public class ElasticsearchGraphListener
         return TimingAction.getStartTime(endNode) - TimingAction.getStartTime(startNode);
     }
 
-    private Map<String, Object> createData(FlowNode node) throws IOException {
-        Map<String, Object> data = config.createData();
-        List<FlowNode> predecessors = node.getParents();
-        if (predecessors.size() > 0) {
+    private Map<String, Object> createData(FlowNode node, Instant now) throws IOException {
+        return createData(createNodeInfo(node), getPredecessorIds(node), now);
+    }
+
+    private Map<String, Object> createData(NodeInfo nodeInfo, List<String> predecessorIds, Instant now) throws IOException {
+        Map<String, Object> data = config.createData(now);
+        if (predecessorIds.size() > 0) {
             JSONArray p = new JSONArray();
-            for (FlowNode parent : predecessors) {
-                p.add(parent.getId());
-            }
+            p.addAll(predecessorIds);
             data.put(PREDECESSORS, p);
         }
-        NodeInfo nodeInfo = new NodeInfo(node);
         nodeInfo.appendNodeInfo(data);
 
         return data;
     }
 
+    private NodeInfo createNodeInfo(FlowNode node) {
+        RunRegistry.Entry entry = RunRegistry.getIfPresent(config.getUniqueId());
+        return new NodeInfo(node, entry != null ? entry.getNodeContexts() : null);
+    }
+
+    private static List<String> getPredecessorIds(FlowNode node) {
+        List<String> result = new ArrayList<>();
+        for (FlowNode parent : node.getParents()) {
+            result.add(parent.getId());
+        }
+        return result;
+    }
+
     private String getErrorMessage(FlowNode node) {
         String errorMessage = null;
         ErrorAction error = node.getError();
@@ -207,13 +412,41 @@ public class ElasticsearchGraphListener
         return Result.SUCCESS.toString();
     }
 
-    @Override
-    public synchronized void close() throws Exception {
-        if (this.isClosed) {
+    /**
+     * Closes the listener without waiting for the events still pending. The
+     * writer is closed after they have been sent.
+     *
+     * @throws IllegalStateException
+     *     if the listener has been closed already.
+     */
+    public void closeAsync() {
+        if (!this.isClosed.compareAndSet(false, true)) {
             throw new IllegalStateException("object is closed already");
         }
+        // after all events submitted so far
+        executor.execute(closing);
+    }
 
-        this.isClosed = true;
-        this.writer.close();
+    /**
+     * Waits until the events pending when the listener has been closed are
+     * sent and the writer is closed, but not longer than the close timeout.
+     */
+    public void awaitClosed() throws Exception {
+        try {
+            closing.get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException ex) {
+            LOGGER.log(Level.WARNING, "Events of the flow graph are still being sent after {0} s", CLOSE_TIMEOUT_SECONDS);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closeAsync();
+        awaitClosed();
     }
 }
@@ -1,24 +1,28 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.input.NullReader;
 import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
 import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner.Executable;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
@@ -30,10 +34,10 @@ import org.kohsuke.stapler.framework.io.ByteBuffer;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.console.AnnotatedLargeText;
 import hudson.console.ConsoleAnnotationOutputStream;
-import hudson.console.ConsoleNote;
-import hudson.console.LineTransformationOutputStream;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
 import hudson.model.TaskListener;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.FileUtils;
 
 class ElasticsearchLogStorage implements LogStorage {
 
@@ -41,17 +45,55 @@ class ElasticsearchLogStorage implements LogStorage {
 
     private static final Map<File, ElasticsearchLogStorage> openStorages = Collections.synchronizedMap(new HashMap<>());
 
+    // output of a node is appended to the log file in blocks of about this size
+    private static final int STAGING_BUFFER_SIZE = Integer.getInteger(ElasticsearchLogStorage.class.getName() + ".stagingBufferSize", 16 * 1024);
+
+    // output of a node is appended to the log file after at most about this time
+    private static final long STAGING_MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong(ElasticsearchLogStorage.class.getName() + ".stagingMaxAgeMillis", 1_000));
+
+    // whether new builds write the binary index instead of log-index
+    private static final boolean BINARY_INDEX = Boolean.getBoolean(ElasticsearchLogStorage.class.getName() + ".binaryIndex");
+
+    // recent output of running builds kept in memory for console viewers, 0 to disable
+    private static final int TAIL_SIZE = Integer.getInteger(ElasticsearchLogStorage.class.getName() + ".tailSize", 256 * 1024);
+
+    // viewers served from the tail see staged output at most this old
+    private static final long TAIL_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong(ElasticsearchLogStorage.class.getName() + ".tailRefreshMillis", 200));
+
     private final File log;
     private File index;
+    private final BinaryIndex binaryIndex;
     @SuppressFBWarnings(value = "IS2_INCONSISTENT_SYNC", justification = "actually it is always accessed within the monitor")
     private FileOutputStream os;
     @SuppressFBWarnings(value = "IS2_INCONSISTENT_SYNC", justification = "we only care about synchronizing writes")
     private OutputStream bos;
-    private Writer indexOs;
+    // either the text or the binary index is written
+    private OutputStream indexOs;
+    private BinaryIndex.Writer binaryIndexWriter;
+    // the length of the index file, i.e. the offset of the next index line
+    private long indexLength;
+    // the length of the log file including buffered output
+    private long logLength;
     private String lastId;
+    // created when the overall log is requested while the build is running
+    private LogTail tail;
+    private boolean closed;
+    private final AtomicLong lastTailRefresh = new AtomicLong(System.nanoTime() - TAIL_REFRESH_NANOS);
+    // set once the step index has been requested
+    private volatile StepIndex stepIndex;
+    // the streams of nodes with staged output, in the order in which it has
+    // been started, i.e. streams without staged output can be collected
+    private final Queue<IndexOutputStream> staging = new ConcurrentLinkedQueue<>();
 
     private ElasticsearchRunConfig config;
 
+    // the log file compressed after the build has completed, if enabled
+    private final CompressedLog compressedLog;
+
+    // guards the uncompressed copy of the log for getLogFile(), which is
+    // deleted once it has not been requested for some time, see LogCopies
+    private final Object logCopyLock = new Object();
+
     public static synchronized LogStorage forFile(ElasticsearchRunConfig config, File log) {
         return openStorages.computeIfAbsent(log, k -> new ElasticsearchLogStorage(config, log));
     }
@@ -60,68 +102,113 @@ class ElasticsearchLogStorage implements LogStorage {
         this.config = config;
         this.log = log;
         this.index = new File(log + "-index");
+        this.binaryIndex = new BinaryIndex(index);
+        this.compressedLog = new CompressedLog(log);
     }
 
     private synchronized void open() throws IOException {
         if (os == null) {
             os = new FileOutputStream(log, true);
-            bos = new GCFlushedOutputStream(new DelayBufferedOutputStream(os));
-            if (index.isFile()) {
-                try (BufferedReader r = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
-                    // TODO would be faster to scan the file backwards for the penultimate \n, then
-                    // convert the byte sequence from there to EOF to UTF-8 and set lastId
-                    // accordingly
-                    String lastLine = null;
-                    while (true) {
-                        // Note that BufferedReader tolerates final lines without a line separator, so
-                        // if for some reason the last write has been truncated this result could be
-                        // incorrect.
-                        // In practice this seems unlikely since we explicitly flush after the newline,
-                        // so we should be sending a single small block to the filesystem to persist.
-                        // Anyway at worst the result would be a (perhaps temporarily) incorrect line →
-                        // step mapping, which is tolerable for one step of one build, and barely
-                        // affects the overall build log.
-                        String line = r.readLine();
-                        if (line == null) {
-                            break;
-                        } else {
-                            lastLine = line;
-                        }
-                    }
+            logLength = os.getChannel().size();
+            bos = new GCFlushedOutputStream(new DelayBufferedOutputStream(os, this::drainStale), "log " + log);
+            // a build keeps the index format it has been started with
+            if (binaryIndex.exists() || (BINARY_INDEX && !index.isFile())) {
+                binaryIndexWriter = binaryIndex.openWriter();
+                lastId = binaryIndexWriter.getLastId();
+            } else {
+                if (index.isFile()) {
+                    // Scans the file backwards, i.e. does not depend on the size of the index.
+                    // If for some reason the last write has been truncated the result could be
+                    // incorrect.
+                    // In practice this seems unlikely since we explicitly flush after the newline,
+                    // so we should be sending a single small block to the filesystem to persist.
+                    // Anyway at worst the result would be a (perhaps temporarily) incorrect line →
+                    // step mapping, which is tolerable for one step of one build, and barely
+                    // affects the overall build log.
+                    String lastLine = FileUtils.readLastLine(index.toPath());
                     if (lastLine != null) {
                         int space = lastLine.indexOf(' ');
                         lastId = space == -1 ? null : lastLine.substring(space + 1);
                     }
                 }
+                indexOs = new FileOutputStream(index, true);
+                indexLength = index.length();
             }
-            indexOs = new OutputStreamWriter(new FileOutputStream(index, true), StandardCharsets.UTF_8);
         }
     }
 
     @Override
     public BuildListener overallListener() throws IOException, InterruptedException {
+        if (isElasticsearchOnly()) {
+            return new ElasticsearchSender(null, config, new ReleasingOutputStream());
+        }
         IndexOutputStream out = new IndexOutputStream(null);
         return new ElasticsearchSender(null, config, out);
     }
 
     @Override
     public TaskListener nodeListener(FlowNode node) throws IOException, InterruptedException {
-        NodeInfo nodeInfo = new NodeInfo(node);
+        RunRegistry.Entry entry = RunRegistry.getIfPresent(config.getUniqueId());
+        NodeInfo nodeInfo = new NodeInfo(node, entry != null ? entry.getNodeContexts() : null);
+        if (isElasticsearchOnly()) {
+            return new ElasticsearchSender(nodeInfo, config, null);
+        }
         IndexOutputStream out = new IndexOutputStream(nodeInfo.nodeId);
         return new ElasticsearchSender(nodeInfo, config, out);
     }
 
+    /*
+     * Returns true if log events are only sent to Elasticsearch, i.e. there
+     * is no local log file. A log file which exists already, e.g. because
+     * the build has been started before the mode has been enabled, is still
+     * used.
+     */
+    private boolean isElasticsearchOnly() {
+        return config.isElasticsearchOnly() && !log.isFile() && !compressedLog.exists();
+    }
+
+    /*
+     * Discards the output of the overall listener if there is no local log
+     * file, but still releases this storage when closed.
+     */
+    private final class ReleasingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public void close() {
+            openStorages.remove(log);
+        }
+    }
+
     // Method copied from FileLogStorage of workflow-api plugin
     private void checkId(String id) throws IOException {
         assert Thread.holdsLock(this);
         if (!Objects.equals(id, lastId)) {
-            bos.flush();
-            long pos = os.getChannel().position();
+            // the position is tracked, i.e. buffered output does not need to be flushed
+            long pos = logLength;
+            if (tail != null) {
+                tail.addTransition(id);
+            }
+            if (binaryIndexWriter != null) {
+                // written in batches, see flushIndex()
+                binaryIndexWriter.add(pos, id);
+                lastId = id;
+                return;
+            }
+            byte[] line;
             if (id == null) {
-                indexOs.write(pos + "\n");
+                line = (pos + "\n").getBytes(StandardCharsets.UTF_8);
             } else {
-                indexOs.write(pos + " " + id + "\n");
+                line = (pos + " " + id + "\n").getBytes(StandardCharsets.UTF_8);
             }
+            indexOs.write(line);
             // Could call FileChannel.force(true) like hudson.util.FileChannelWriter does
             // for AtomicFileWriter,
             // though making index-log writes slower is likely a poor tradeoff for slightly
@@ -129,46 +216,112 @@ class ElasticsearchLogStorage implements LogStorage {
             // since logs are often never read and this is transient data rather than
             // configuration or valuable state.
             indexOs.flush();
+            StepIndex si = stepIndex;
+            if (si != null) {
+                si.append(indexLength, line.length, pos, id);
+            }
+            indexLength += line.length;
             lastId = id;
         }
     }
 
-    // Copied from FileLogStorage of workflow-api plugin
-    private final class IndexOutputStream extends LineTransformationOutputStream {
+    /*
+     * Copied from FileLogStorage of workflow-api plugin
+     *
+     * In contrast to the original, lines are not written to the log file one
+     * by one, each of which requires the monitor of the storage shared by all
+     * nodes. Instead they are collected in a staging buffer of the node
+     * first, which is appended to the log file as a single block once it is
+     * full, or when the stream gets flushed or closed, or when the log is
+     * read, or when it has been staged for STAGING_MAX_AGE_NANOS. This way
+     * parallel branches only contend on the storage once per block. The order
+     * of the lines of a single node is preserved, but lines of different nodes
+     * are interleaved at the block level only. The storage only references
+     * a stream while it has staged output, i.e. streams which are never
+     * closed can still be collected.
+     *
+     * The overall stream is not staged: it writes the transitions between the
+     * nodes, e.g. "[Pipeline] sh", so all output staged before a line of it
+     * is appended first.
+     */
+    private final class IndexOutputStream extends LineOutputStream {
 
         private final String id;
 
+        // output of this node not yet appended to the log file
+        private final ByteArrayOutputStream staged = new ByteArrayOutputStream(256);
+        // the System.nanoTime() at which the staged output has been started
+        private volatile long stagedSince;
+
         IndexOutputStream(String id) throws IOException {
+            super(config.getMaxLineLength());
             this.id = id;
             open();
         }
 
         @Override
-        protected void eol(byte[] b, int len) throws IOException {
-            synchronized (ElasticsearchLogStorage.this) {
-                checkId(id);
-                if (!config.isWriteAnnotationsToLogFile()) {
-                    String line = new String(b, 0, len, StandardCharsets.UTF_8);
-                    line = ConsoleNote.removeNotes(line);
-                    bos.write(line.getBytes(StandardCharsets.UTF_8));
-                } else {
-                    bos.write(b, 0, len);
+        protected synchronized void eol(byte[] b, int len) throws IOException {
+            if (staged.size() == 0 && id != null) {
+                stagedSince = System.nanoTime();
+                staging.add(this);
+            }
+            if (!config.isWriteAnnotationsToLogFile()) {
+                ConsoleNotes.removeNotes(b, len, staged);
+            } else {
+                staged.write(b, 0, len);
+            }
+            if (id == null) {
+                // Does not deadlock with other overall streams, as they are
+                // never staging.
+                drainAll();
+                drain();
+            } else if (staged.size() >= STAGING_BUFFER_SIZE) {
+                drain();
+            }
+        }
+
+        /*
+         * Appends the staged output to the log file.
+         */
+        synchronized void drain() throws IOException {
+            if (staged.size() > 0) {
+                synchronized (ElasticsearchLogStorage.this) {
+                    checkId(id);
+                    staged.writeTo(bos);
+                    logLength += staged.size();
+                    if (tail != null) {
+                        staged.writeTo(tail);
+                    }
+                }
+                staged.reset();
+                if (id != null) {
+                    staging.remove(this);
                 }
             }
         }
 
         @Override
         public void flush() throws IOException {
+            drain();
             bos.flush();
         }
 
         @Override
         public void close() throws IOException {
+            drain();
+
             if (id == null) {
                 openStorages.remove(log);
+                synchronized (ElasticsearchLogStorage.this) {
+                    // later requests read the file
+                    closed = true;
+                    tail = null;
+                }
 
                 IOException firstException = null;
                 try {
+                    // streams of nodes should have been closed already
+                    drainAll();
                     bos.flush();
                 }
                 catch (IOException ex) {
@@ -179,25 +332,89 @@ class ElasticsearchLogStorage implements LogStorage {
                     bos.close();
                 }
                 catch (IOException ex) {
-                    if (firstException != null) firstException = ex;
+                    if (firstException == null) firstException = ex;
                 }
 
                 try {
-                    indexOs.flush();
+                    closeIndex();
                 }
                 catch (IOException ex) {
-                    if (firstException != null) firstException = ex;
+                    if (firstException == null) firstException = ex;
                 }
 
-                try {
-                    indexOs.close();
-                }
-                catch (IOException ex) {
-                    if (firstException != null) firstException = ex;
+                if (firstException != null) throw firstException;
+
+                if (config.isCompressCompletedLogs()) {
+                    Computer.threadPoolForRemoting.submit(ElasticsearchLogStorage.this::compressLog);
                 }
+            }
+        }
+    }
 
-                if (firstException != null) throw firstException;
+    private synchronized void flushIndex() throws IOException {
+        if (binaryIndexWriter != null) {
+            binaryIndexWriter.flush();
+        }
+    }
+
+    private synchronized void closeIndex() throws IOException {
+        if (binaryIndexWriter != null) {
+            binaryIndexWriter.close();
+        } else {
+            indexOs.flush();
+            indexOs.close();
+        }
+    }
+
+    /*
+     * Replaces the log file with a compressed copy.
+     */
+    private void compressLog() {
+        try {
+            CompressedLog.compress(log);
+            // readers prefer the uncompressed file as long as it exists
+            Files.delete(log.toPath());
+        }
+        catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to compress " + log, ex);
+        }
+    }
+
+    /*
+     * Returns true if the log file has been replaced by a compressed copy.
+     */
+    private boolean isCompressed() {
+        return !log.isFile() && compressedLog.exists();
+    }
+
+    /*
+     * Appends the staged output of all streams to the log file, in the order
+     * in which it has been started.
+     */
+    private void drainAll() throws IOException {
+        // streams which start staging meanwhile might be drained as well
+        for (IndexOutputStream stream : staging) {
+            stream.drain();
+        }
+    }
+
+    /*
+     * Appends the output staged for longer than STAGING_MAX_AGE_NANOS to the
+     * log file. Called periodically before the buffered output of the log
+     * file is written.
+     */
+    private void drainStale() {
+        long now = System.nanoTime();
+        try {
+            for (IndexOutputStream stream : staging) {
+                // the streams are ordered by age, oldest first
+                if (now - stream.stagedSince < STAGING_MAX_AGE_NANOS) {
+                    break;
+                }
+                stream.drain();
             }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to flush " + log, x);
         }
     }
 
@@ -205,139 +422,170 @@ class ElasticsearchLogStorage implements LogStorage {
     private void maybeFlush() {
         if (bos != null) {
             try {
+                drainAll();
                 bos.flush();
+                flushIndex();
             } catch (IOException x) {
                 LOGGER.log(Level.WARNING, "failed to flush " + log, x);
             }
         }
     }
 
+    /*
+     * Returns the tail of the log of the running build, which is created on
+     * first use.
+     */
+    private synchronized LogTail getTail() {
+        if (tail == null && !closed && bos != null && TAIL_SIZE > 0) {
+            tail = new LogTail(TAIL_SIZE, logLength);
+        }
+        return tail;
+    }
+
+    /*
+     * Appends the staged output to the log file like maybeFlush(), but only
+     * if that has not been done recently. Concurrent callers do not wait for
+     * each other, i.e. the output appended by another caller is good enough.
+     */
+    private void refreshTail() {
+        long now = System.nanoTime();
+        long last = lastTailRefresh.get();
+        if (now - last < TAIL_REFRESH_NANOS || !lastTailRefresh.compareAndSet(last, now)) {
+            return;
+        }
+        try {
+            drainAll();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to flush " + log, x);
+        }
+    }
+
     // Method copied from FileLogStorage of workflow-api plugin
     @Override
     public AnnotatedLargeText<Executable> overallLog(Executable build, boolean complete) {
+        LogTail t = isElasticsearchOnly() ? null : getTail();
+        if (t != null) {
+            refreshTail();
+            return new OverallLogText(t, complete, build);
+        }
         maybeFlush();
-        return new AnnotatedLargeText<FlowExecutionOwner.Executable>(log, StandardCharsets.UTF_8, complete, build) {
-            @Override public long writeHtmlTo(long start, Writer w) throws IOException {
-                try (BufferedReader indexBR = index.isFile() ? Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8) : new BufferedReader(new NullReader(0))) {
-                    ConsoleAnnotationOutputStream<FlowExecutionOwner.Executable> caos = new ConsoleAnnotationOutputStream<>(w, ConsoleAnnotators.createAnnotator(build), build, StandardCharsets.UTF_8);
-                    long r = this.writeRawLogTo(start, new FilterOutputStream(caos) {
-                        // To insert startStep/endStep annotations into the overall log, we need to simultaneously read index-log.
-                        // We use the standard LargeText.FileSession to get the raw log text (we need not think about ConsoleNote here), having seeked to the start position.
-                        // Then we read index-log in order, looking for transitions from one step to the next (or to or from non-step overall output).
-                        // Whenever we are about to write a byte which is at a boundary, or if there is a boundary at EOF, the HTML annotations are injected into the output;
-                        // the read of index-log is advanced lazily (it is not necessary to have the whole mapping in memory).
-                        long lastTransition = -1;
-                        boolean eof; // NullReader is strict and throws IOException (not EOFException) if you read() again after having already gotten -1
-                        String lastId;
-                        long pos = start;
-                        boolean hadLastId;
-                        @Override public void write(int b) throws IOException {
-                            while (lastTransition < pos && !eof) {
-                                String line = indexBR.readLine();
-                                if (line == null) {
-                                    eof = true;
-                                    break;
-                                }
-                                int space = line.indexOf(' ');
-                                try {
-                                    lastTransition = Long.parseLong(space == -1 ? line : line.substring(0, space));
-                                } catch (NumberFormatException x) {
-                                    LOGGER.warning("Ignoring corrupt index file " + index);
-                                }
-                                lastId = space == -1 ? null : line.substring(space + 1);
-                            }
-                            if (pos == lastTransition) {
-                                if (hadLastId) {
-                                    w.write(LogStorage.endStep());
-                                }
-                                hadLastId = lastId != null;
-                                if (lastId != null) {
-                                    w.write(LogStorage.startStep(lastId));
-                                }
-                            }
-                            super.write(b);
-                            pos++;
-                        }
-                        @Override public void flush() throws IOException {
-                            if (lastId != null) {
-                                w.write(LogStorage.endStep());
-                            }
-                            super.flush();
-                        }
-                    });
-                    ConsoleAnnotators.setAnnotator(caos.getConsoleAnnotator());
-                    return r;
-                }
+        if (isElasticsearchOnly()) {
+            try {
+                SearchedLog.Content content = SearchedLog.forRun(config, null).refresh(complete);
+                long[] all = {0, content.length()};
+                IndexSource indexSource = start -> new IndexReader(content.openIndex(), index.toString());
+                return new OverallLogText(new LogRangesByteBuffer(content::openReader, config.getUniqueId(), all), indexSource, complete, build);
+            } catch (IOException x) {
+                return new BrokenLogStorage(x).overallLog(build, complete);
+            }
+        }
+        if (isCompressed()) {
+            try {
+                long[] all = {0, compressedLog.length()};
+                return new OverallLogText(new LogRangesByteBuffer(compressedLog::openReader, compressedLog.toString(), all), this::openIndex, complete, build);
+            } catch (IOException x) {
+                return new BrokenLogStorage(x).overallLog(build, complete);
+            }
+        }
+        return new OverallLogText(log, complete, build);
+    }
+
+    /*
+     * Used by viewers of running builds which start before the tail.
+     */
+    private LogReader openFlushedLog() throws IOException {
+        maybeFlush();
+        return LogReader.open(log);
+    }
+
+    private TransitionReader openFlushedIndex(long start) throws IOException {
+        maybeFlush();
+        return openIndex(start);
+    }
+
+    private TransitionReader openIndex(long start) throws IOException {
+        if (binaryIndex.exists()) {
+            return binaryIndex.openReaderAt(start);
+        }
+        InputStream in = index.isFile() ? Files.newInputStream(index.toPath()) : InputStream.nullInputStream();
+        return new IndexReader(in, index.toString());
+    }
+
+    /*
+     * Opens the index for output starting at the given position.
+     */
+    @FunctionalInterface
+    private interface IndexSource {
+        TransitionReader open(long start) throws IOException;
+    }
+
+    private final class OverallLogText extends AnnotatedLargeText<FlowExecutionOwner.Executable> {
+
+        private final Executable build;
+        private final IndexSource indexSource;
+
+        OverallLogText(File file, boolean complete, Executable build) {
+            super(file, StandardCharsets.UTF_8, complete, build);
+            this.build = build;
+            this.indexSource = ElasticsearchLogStorage.this::openIndex;
+        }
+
+        OverallLogText(LogTail tail, boolean complete, Executable build) {
+            super(new LogRangesByteBuffer(() -> tail.openReader(ElasticsearchLogStorage.this::openFlushedLog), log.toString(), new long[] {0, tail.end()}), StandardCharsets.UTF_8, complete, build);
+            this.build = build;
+            this.indexSource = start -> {
+                TransitionReader reader = tail.openTransitionReader(start);
+                return reader != null ? reader : openFlushedIndex(start);
+            };
+        }
+
+        OverallLogText(ByteBuffer memory, IndexSource indexSource, boolean complete, Executable build) {
+            super(memory, StandardCharsets.UTF_8, complete, build);
+            this.build = build;
+            this.indexSource = indexSource;
+        }
+
+        @Override public long writeHtmlTo(long start, Writer w) throws IOException {
+            try (TransitionReader indexReader = indexSource.open(start)) {
+                ConsoleAnnotationOutputStream<FlowExecutionOwner.Executable> caos = new ConsoleAnnotationOutputStream<>(w, ConsoleAnnotators.createAnnotator(build), build, StandardCharsets.UTF_8);
+                long r = this.writeRawLogTo(start, new StepAnnotatingOutputStream(caos, w, indexReader, start));
+                ConsoleAnnotators.setAnnotator(caos.getConsoleAnnotator());
+                return r;
             }
-        };    }
+        }
+    }
 
     // Method copied from FileLogStorage of workflow-api plugin
     @Override
     public AnnotatedLargeText<FlowNode> stepLog(FlowNode node, boolean complete) {
         maybeFlush();
         String id = node.getId();
-        try (ByteBuffer buf = new ByteBuffer();
-             RandomAccessFile raf = new RandomAccessFile(log, "r");
-             BufferedReader indexBR = index.isFile() ? Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8) : new BufferedReader(new NullReader(0))) {
+        if (isElasticsearchOnly()) {
+            try {
+                SearchedLog.Content content = SearchedLog.forRun(config, id).refresh(complete);
+                long[] all = {0, content.length()};
+                return new AnnotatedLargeText<>(new LogRangesByteBuffer(content::openReader, config.getUniqueId() + " " + id, all), StandardCharsets.UTF_8, complete, node);
+            } catch (IOException x) {
+                return new BrokenLogStorage(x).stepLog(node, complete);
+            }
+        }
+        try {
             // Check this _before_ reading index-log to reduce the chance of a race condition resulting in recent content being associated with the wrong step:
-            long end = raf.length();
+            boolean isCompressed = isCompressed();
+            long end = isCompressed ? compressedLog.length() : Files.size(log.toPath());
             // To produce just the output for a single step (again we do not need to pay attention to ConsoleNote here since AnnotatedLargeText handles it),
-            // index-log is read looking for transitions that pertain to this step: beginning or ending its content, including at EOF if applicable.
-            // (Other transitions, such as to or from unrelated steps, are irrelevant).
-            // Once a start and end position have been identified, that block is copied to a memory buffer.
-            String line;
-            long pos = -1; // -1 if not currently in this node, start position if we are
-            while ((line = indexBR.readLine()) != null) {
-                int space = line.indexOf(' ');
-                long lastTransition = -1;
-                try {
-                    lastTransition = Long.parseLong(space == -1 ? line : line.substring(0, space));
-                } catch (NumberFormatException x) {
-                    LOGGER.warning("Ignoring corrupt index file " + index);
-                    // If index-log is corrupt for whatever reason, we given up on this step in this build;
-                    // there is no way we would be able to produce accurate output anyway.
-                    // Note that NumberFormatException is nonfatal in the case of the overall build log:
-                    // the whole-build HTML output always includes exactly what is in the main log file,
-                    // at worst with some missing or inaccurate startStep/endStep annotations.
-                    continue;
-                }
-                if (pos == -1) {
-                    if (space != -1 && line.substring(space + 1).equals(id)) {
-                        pos = lastTransition;
-                    }
-                } else if (lastTransition > pos) {
-                    raf.seek(pos);
-                    if (lastTransition > pos + Integer.MAX_VALUE) {
-                        throw new IOException("Cannot read more than 2Gib at a time"); // ByteBuffer does not support it anyway
-                    }
-                    // Could perhaps be done a bit more efficiently with FileChannel methods,
-                    // at least if org.kohsuke.stapler.framework.io.ByteBuffer were replaced by java.nio.[Heap]ByteBuffer.
-                    // The overall bottleneck here is however the need to use a memory buffer to begin with:
-                    // LargeText.Source/Session are not public so, pending improvements to Stapler,
-                    // we cannot lazily stream per-step content the way we do for the overall log.
-                    // (Except perhaps by extending ByteBuffer and then overriding every public method!)
-                    // LargeText also needs to be improved to support opaque (non-long) cursors
-                    // (and callers such as progressiveText.jelly and Blue Ocean updated accordingly),
-                    // which is a hard requirement for efficient rendering of cloud-backed logs,
-                    // though for this implementation we do not need it since we can work with byte offsets.
-                    byte[] data = new byte[(int) (lastTransition - pos)];
-                    raf.readFully(data);
-                    buf.write(data);
-                    pos = -1;
-                } // else some sort of mismatch
+            // the step index provides the ranges of the log file belonging to this step, including a range ending at EOF if applicable.
+            // The step index is kept in memory and only updated with transitions added to index-log since the last request.
+            StepIndex si = StepIndex.forIndexFile(index);
+            stepIndex = si;
+            long[] ranges = si.getRanges(id, end);
+            for (int i = 0; i < ranges.length; i += 2) {
+                ranges[i + 1] = Math.max(ranges[i], Math.min(ranges[i + 1], end));
             }
-            if (pos != -1 && /* otherwise race condition? */ end > pos) {
-                // In case the build is ongoing and we are still actively writing content for this step,
-                // we will hit EOF before any other transition. Otherwise identical to normal case above.
-                raf.seek(pos);
-                if (end > pos + Integer.MAX_VALUE) {
-                    throw new IOException("Cannot read more than 2Gib at a time");
-                }
-                byte[] data = new byte[(int) (end - pos)];
-                raf.readFully(data);
-                buf.write(data);
-            }
-            return new AnnotatedLargeText<>(buf, StandardCharsets.UTF_8, complete, node);
+            // LargeText.Source/Session are not public, but a ByteBuffer can be passed to AnnotatedLargeText.
+            // Instead of copying the ranges to a memory buffer, they are streamed from the log file on demand.
+            LogReader.Factory readerFactory = isCompressed ? compressedLog::openReader : () -> LogReader.open(log);
+            return new AnnotatedLargeText<>(new LogRangesByteBuffer(readerFactory, log.toString(), ranges), StandardCharsets.UTF_8, complete, node);
         } catch (IOException x) {
             return new BrokenLogStorage(x).stepLog(node, complete);
         }
@@ -345,6 +593,55 @@ class ElasticsearchLogStorage implements LogStorage {
 
     @Override
     public File getLogFile(Executable build, boolean complete) {
+        if (isElasticsearchOnly()) {
+            try {
+                // only the events added since the last call are searched
+                SearchedLog.Content content = SearchedLog.forRun(config, null).refresh(complete);
+                synchronized (logCopyLock) {
+                    File logCopy = LogCopies.INSTANCE.getCopy(log);
+                    // the log only grows, i.e. a copy of the same length is up to date
+                    if (!logCopy.isFile() || logCopy.length() != content.length()) {
+                        File tmp = new File(logCopy + ".tmp");
+                        try (LogReader reader = content.openReader();
+                             FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                            reader.transferTo(0, content.length(), channel);
+                        }
+                        replaceLogCopy(tmp, logCopy);
+                    }
+                    LogCopies.INSTANCE.requested(logCopy);
+                }
+                return logCopy;
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "Failed to read log of " + config.getUniqueId() + " from Elasticsearch", x);
+            }
+        }
+        if (isCompressed()) {
+            try {
+                synchronized (logCopyLock) {
+                    File logCopy = LogCopies.INSTANCE.getCopy(log);
+                    // the compressed log does not change anymore, i.e. it is
+                    // decompressed again only once the copy has been deleted
+                    if (!logCopy.isFile()) {
+                        File tmp = new File(logCopy + ".tmp");
+                        compressedLog.decompressTo(tmp);
+                        replaceLogCopy(tmp, logCopy);
+                    }
+                    LogCopies.INSTANCE.requested(logCopy);
+                }
+                return logCopy;
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "Failed to decompress " + compressedLog, x);
+            }
+        }
         return log;
     }
+
+    /*
+     * Replaces the copy of the log atomically, i.e. callers which still read
+     * the previous copy are not affected.
+     */
+    private void replaceLogCopy(File tmp, File logCopy) throws IOException {
+        assert Thread.holdsLock(logCopyLock);
+        Files.move(tmp.toPath(), logCopy.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 }
@@ -10,9 +10,11 @@ import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.time.Instant;
 import java.time.ZoneId;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -22,9 +24,14 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import hudson.model.Run;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.BoundedCache;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.RunUtils;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriterRunConfig;
+import jenkins.security.MasterToSlaveCallable;
 import net.sf.json.JSONObject;
 
 /**
@@ -37,8 +44,9 @@ import net.sf.json.JSONObject;
  * configuration used for processing a run stays unchanged even if the plugin
  * configuration is changed in parallel. In addition, all config consumers
  * processing the same run implicitly use the same instance of the {@link
- * EventWriter} factory, which then can ensure that not more than one writer is
- * used per run.
+ * EventWriter} factory. The writers it creates are proxies of a writer shared
+ * JVM-wide by all runs with the same destination, see {@link
+ * io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.EventWriterPool}.
  *
  * When instances of this class are deserialized on remote agents, they get
  * deduplicated using the internal instance cache, so that the same
@@ -47,12 +55,18 @@ import net.sf.json.JSONObject;
 @Restricted(NoExternalUse.class)
 public class ElasticsearchRunConfig implements SerializableOnlyOverRemoting {
 
+    private static final Logger LOGGER = Logger.getLogger(ElasticsearchRunConfig.class.getName());
+
     private static final long serialVersionUID = 1L;
 
     private final boolean saveAnnotations;
 
     private final boolean writeAnnotationsToLogFile;
 
+    private final boolean compressCompletedLogs;
+
+    private final boolean elasticsearchOnly;
+
     private final String uniqueId;
 
     private final EventWriterRunConfig eventWriterConfig;
@@ -61,15 +75,23 @@ public class ElasticsearchRunConfig implements SerializableOnlyOverRemoting {
 
     private final int splitMessagesLongerThan;
 
+    private final int maxLineLength;
+
+    private final int compactAtomNodesShorterThan;
+
     protected ElasticsearchRunConfig(
         @Nonnull ElasticsearchConfig config,
         @Nonnull Run<?, ?> run
     ) throws IOException {
         this.saveAnnotations = config.isSaveAnnotations();
         this.writeAnnotationsToLogFile = config.isWriteAnnotationsToLogFile();
+        this.compressCompletedLogs = config.isCompressCompletedLogs();
+        this.elasticsearchOnly = config.isElasticsearchOnly();
         this.uniqueId = RunUtils.getUniqueRunId(run);
         this.runIdJsonString = config.getRunIdProvider().getRunId(run).toString();
         this.splitMessagesLongerThan = config.getSplitMessagesLongerThan();
+        this.maxLineLength = config.getMaxLineLength();
+        this.compactAtomNodesShorterThan = config.getCompactAtomNodesShorterThan();
         this.eventWriterConfig = config.getEventWriterConfig().createRunConfig(run);
     }
 
@@ -85,14 +107,36 @@ public class ElasticsearchRunConfig implements SerializableOnlyOverRemoting {
         return writeAnnotationsToLogFile;
     }
 
+    public boolean isCompressCompletedLogs() {
+        return compressCompletedLogs;
+    }
+
+    public boolean isElasticsearchOnly() {
+        return elasticsearchOnly;
+    }
+
     public int getSplitMessagesLongerThan() {
         return splitMessagesLongerThan;
     }
 
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public int getCompactAtomNodesShorterThan() {
+        return compactAtomNodesShorterThan;
+    }
+
     // TODO Move this method elsewhere, as this class should not be concerned with event creation
     public Map<String, Object> createData() {
+        return createData(Instant.now());
+    }
+
+    /**
+     * Creates the common data of an event which happened at the given time.
+     */
+    public Map<String, Object> createData(@Nonnull Instant now) {
         Map<String, Object> data = new LinkedHashMap<>();
-        Instant now = Instant.now();
         data.put(TIMESTAMP, now.atZone(ZoneId.of("UTC")).format(TIMESTAMP_FORMAT));
         data.put(TIMESTAMP_MILLIS, now.toEpochMilli());
         data.put(RUN_ID, JSONObject.fromObject(runIdJsonString));
@@ -105,6 +149,28 @@ public class ElasticsearchRunConfig implements SerializableOnlyOverRemoting {
         return this.eventWriterConfig.createEventWriter();
     }
 
+    /*
+     * Returns null if the configured event writer does not support reading
+     * events back.
+     */
+    @CheckForNull
+    public EventReader createEventReader() {
+        return this.eventWriterConfig.createEventReader();
+    }
+
+    protected Object writeReplace() throws ObjectStreamException {
+        // remember the agent so that it gets notified when the run is released
+        Channel channel = Channel.current();
+        if (channel != null) {
+            // only present on the controller
+            RunRegistry.Entry entry = RunRegistry.getIfPresent(this.uniqueId);
+            if (entry != null) {
+                entry.addChannel(channel);
+            }
+        }
+        return this;
+    }
+
     protected Object readResolve() throws ObjectStreamException {
         // deduplicate after deserialization using the factory cache
         // especially required to ensure single instances on remote agents
@@ -122,80 +188,123 @@ public class ElasticsearchRunConfig implements SerializableOnlyOverRemoting {
      */
     @CheckForNull
     public static ElasticsearchRunConfig get(Run<?, ?> run) throws IOException {
-        return factory.getInstance(run);
+        return RunRegistry.get(run).getConfig();
     }
 
     /*
      * Removes the cache entry for the given run.
+     *
+     * Remote agents get notified asynchronously to remove their cache entries
+     * for the run, too.
      */
     public static void release(Run<?, ?> run) {
         factory.release(run);
     }
 
+    /*
+     * Creates a new instance based on the current plugin configuration.
+     *
+     * Returns null if logging to Elasticsearch is disabled.
+     */
+    @CheckForNull
+    static ElasticsearchRunConfig newInstanceOrNull(Run<?, ?> run) throws IOException {
+        ElasticsearchConfig config = ElasticsearchGlobalConfig.get().getElasticsearch();
+        if (config == null) {
+            // Logging to Elasticsearch is disabled
+            return null;
+        }
+        return new ElasticsearchRunConfig(config, run);
+    }
+
+    // must be initialized before the factory
+    private static final int REMOTE_CACHE_MAX_SIZE = Integer.getInteger(
+        ElasticsearchRunConfig.class.getName() + ".remoteCacheMaxSize", 1000);
+    private static final long REMOTE_CACHE_EXPIRE_AFTER_ACCESS_MILLIS = Long.getLong(
+        ElasticsearchRunConfig.class.getName() + ".remoteCacheExpireAfterAccessMillis", 60 * 60 * 1000); // 1h
+
     private static final Factory factory = new Factory();
 
     /*
-     * Factory keeps track of ElasticsearchRunConfig instances to ensure
-     * that multiple users always get the same instance for the same run.
+     * Factory deduplicates deserialized ElasticsearchRunConfig instances to
+     * ensure that multiple users always get the same instance for the same
+     * run.
      *
-     * On the Jenkins Controller cached entries MUST be removed after the run
-     * is no longer handled.
+     * On the Jenkins Controller instances are kept in the RunRegistry, from
+     * which entries get removed when the run is released.
      *
-     * Deserialization on remote agents adds instances to the cache, but never
-     * removes them because there is no signal in a remote agent JVM indicating
-     * that a run is no longer processed.
-     * Long-running agents thereby have a memory leak.
-     *
-     * TODO Fix memory leak
-     *
-     * Idea: Call back via Jenkins remoting to the factory on the Jenkins
-     * controller. Remove all entries which are not present there.
+     * Deserialization on remote agents adds instances to a separate cache.
+     * There is no signal in a remote agent JVM indicating that a run is no
+     * longer processed. Therefore the controller records the channels a config
+     * has been sent over and calls back to these agents when a run is
+     * released. As this is best-effort only (e.g. agents might
+     * be disconnected temporarily), the remote cache is also bounded in size
+     * and entries expire if they have not been used for some time. Evicting
+     * an entry that is still in use is harmless: a subsequent deserialization
+     * of the same config just creates a new cache entry. Event writers are
+     * shared per destination anyway.
      */
     private static final class Factory {
-        private final Map<String, ElasticsearchRunConfig> cache =
-            new HashMap<String, ElasticsearchRunConfig>();
+        private final BoundedCache<String, ElasticsearchRunConfig> remoteCache =
+            new BoundedCache<>(REMOTE_CACHE_MAX_SIZE, REMOTE_CACHE_EXPIRE_AFTER_ACCESS_MILLIS);
 
-        protected synchronized ElasticsearchRunConfig getInstance(Run<?, ?> run) throws IOException {
-            String runId = RunUtils.getUniqueRunId(run);
+        protected ElasticsearchRunConfig registerAndDedup(
+            @Nonnull ElasticsearchRunConfig newInstance
+        ) {
+            String runId = newInstance.getUniqueId();
 
-            if (this.cache.containsKey(runId)) {
-                // value may be null, i.e. when a config for the run has been
-                // requested the first time, the logs plugin was disabled
-                // (not configured).
-                return this.cache.get(runId);
+            // only filled on the controller
+            RunRegistry.Entry entry = RunRegistry.getIfPresent(runId);
+            if (entry != null && entry.getConfig() != null) {
+                return entry.getConfig();
             }
 
-            ElasticsearchRunConfig instance = newInstanceOrNull(run);
-            this.cache.put(runId, instance);
-            return instance;
+            return this.remoteCache.putIfAbsent(runId, newInstance);
         }
 
-        protected ElasticsearchRunConfig newInstanceOrNull(Run<?, ?> run) throws IOException {
-            ElasticsearchConfig config = ElasticsearchGlobalConfig.get().getElasticsearch();
-            if (config == null) {
-                // Logging to Elasticsearch is disabled
-                return null;
+        protected void release(Run<?, ?> run) {
+            if (run != null) {
+                RunRegistry.Entry entry = RunRegistry.remove(run);
+                if (entry != null) {
+                    releaseOnAgents(RunUtils.getUniqueRunId(run), entry.getChannels());
+                }
             }
-            return new ElasticsearchRunConfig(config, run);
         }
 
-        protected synchronized ElasticsearchRunConfig registerAndDedup(
-            @Nonnull ElasticsearchRunConfig newInstance
-        ) {
-            String runId = newInstance.getUniqueId();
+        protected void releaseRemote(String runId) {
+            this.remoteCache.remove(runId);
+        }
 
-            if (this.cache.containsKey(runId)) {
-                return this.cache.get(runId);
+        private void releaseOnAgents(String runId, Set<VirtualChannel> channels) {
+            for (VirtualChannel channel : channels) {
+                try {
+                    // do not wait for the result, agents which cannot be
+                    // reached rely on the expiry of cache entries
+                    channel.callAsync(new ReleaseCallable(runId));
+                }
+                catch (IOException | RuntimeException ex) {
+                    LOGGER.log(Level.FINE, "Failed to release config of run " + runId + " on agent " + channel, ex);
+                }
             }
+        }
+    }
 
-            this.cache.put(runId, newInstance);
-            return newInstance;
+    /*
+     * Removes the cache entry for a run on a remote agent.
+     */
+    private static final class ReleaseCallable extends MasterToSlaveCallable<Void, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String runId;
+
+        ReleaseCallable(String runId) {
+            this.runId = runId;
         }
 
-        protected synchronized void release(Run<?, ?> run) {
-            if (run != null) {
-                this.cache.remove(RunUtils.getUniqueRunId(run));
-            }
+        @Override
+        public Void call() {
+            factory.releaseRemote(runId);
+            return null;
         }
     }
 }
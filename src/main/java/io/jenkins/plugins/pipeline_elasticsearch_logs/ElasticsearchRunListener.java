@@ -1,7 +1,6 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -10,7 +9,6 @@ import hudson.Extension;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.listeners.RunListener;
-import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.RunUtils;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
 
 @Extension
@@ -18,20 +16,23 @@ public class ElasticsearchRunListener extends RunListener<Run<?, ?>> {
 
     private static final Logger LOGGER = Logger.getLogger(ElasticsearchRunListener.class.getName());
 
-    private final Map<String, EventWriter> eventWritersByRunId = new HashMap<>();
-
     @Override
     public void onInitialize(Run<?, ?> run) {
 
         try {
-            ElasticsearchRunConfig config = ElasticsearchRunConfig.get(run);
+            RunRegistry.Entry entry = RunRegistry.get(run);
+            ElasticsearchRunConfig config = entry.getConfig();
             if (config == null) {
                 return;
             }
 
             @SuppressWarnings("java:S2095") // Sonar rule: "Resources should be closed"
             EventWriter eventWriter = config.createEventWriter();
-            this.eventWritersByRunId.put(RunUtils.getUniqueRunId(run), eventWriter);
+            if (!entry.setEventWriter(eventWriter)) {
+                LOGGER.log(Level.SEVERE, "internal inconsistency: Elasticsearch event writer created twice for the same run");
+                closeEventWriter(eventWriter);
+                return;
+            }
 
             Map<String, Object> data = config.createData();
             data.put("eventType", "buildStart");
@@ -46,16 +47,23 @@ public class ElasticsearchRunListener extends RunListener<Run<?, ?>> {
     public void onFinalized(Run<?, ?> run) {
         EventWriter writer = null;
         try {
-            ElasticsearchRunConfig config = ElasticsearchRunConfig.get(run);
+            RunRegistry.Entry entry = RunRegistry.get(run);
+            ElasticsearchRunConfig config = entry.getConfig();
             if (config == null) {
                 return;
             }
-            writer = this.eventWritersByRunId.remove(RunUtils.getUniqueRunId(run));
+            writer = entry.removeEventWriter();
             if (writer == null) {
                 LOGGER.log(Level.SEVERE, "internal inconsistency: Elasticsearch event writer not found although it should have been created at the start of the run");
                 return;
             }
 
+            // the events of the flow graph are sent before the end of the run
+            ElasticsearchGraphListener graphListener = entry.removeClosingGraphListener();
+            if (graphListener != null) {
+                awaitGraphListenerClosed(graphListener);
+            }
+
             Map<String, Object> data = config.createData();
             data.put("eventType", "buildEnd");
             Result result = run.getResult();
@@ -73,14 +81,27 @@ public class ElasticsearchRunListener extends RunListener<Run<?, ?>> {
         }
         finally {
             if (writer != null) {
-                try {
-                    writer.close();
-                }
-                catch (Exception ex) {
-                    LOGGER.log(Level.SEVERE, "failed to close event writer", ex);
-                }
+                closeEventWriter(writer);
             }
             ElasticsearchRunConfig.release(run);
         }
     }
+
+    private static void awaitGraphListenerClosed(ElasticsearchGraphListener graphListener) {
+        try {
+            graphListener.awaitClosed();
+        }
+        catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Failed to close flow graph listener", ex);
+        }
+    }
+
+    private static void closeEventWriter(EventWriter writer) {
+        try {
+            writer.close();
+        }
+        catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "failed to close event writer", ex);
+        }
+    }
 }
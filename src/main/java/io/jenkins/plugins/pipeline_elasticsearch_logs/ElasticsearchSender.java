@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,7 +22,6 @@ import org.jenkinsci.remoting.SerializableOnlyOverRemoting;
 import com.google.common.base.Splitter;
 
 import hudson.CloseProofOutputStream;
-import hudson.console.LineTransformationOutputStream;
 import hudson.model.BuildListener;
 import hudson.remoting.RemoteOutputStream;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
@@ -36,6 +36,11 @@ public class ElasticsearchSender implements BuildListener, Closeable {
 
     private static final long serialVersionUID = 1;
 
+    // order message events with the same timestamp: a random ID per sender,
+    // i.e. per JVM the sender is used in, and the number of the event
+    private final transient long senderId = UUID.randomUUID().getMostSignificantBits();
+    private final transient AtomicLong sequence = new AtomicLong();
+
     private transient @CheckForNull PrintStream outputStreamLogger;
     private final @CheckForNull NodeInfo nodeInfo;
 
@@ -120,26 +125,31 @@ public class ElasticsearchSender implements BuildListener, Closeable {
 
         private static final long serialVersionUID = 1;
 
-        private final RemoteOutputStream ros;
+        private final @CheckForNull RemoteOutputStream ros;
         private final DelayBufferedOutputStream.Tuning tuning = DelayBufferedOutputStream.Tuning.DEFAULT; // load defaults on master
         private final ElasticsearchRunConfig config;
         private final @CheckForNull NodeInfo nodeInfo;
 
         Replacement(ElasticsearchSender ess) {
             LOGGER.log(Level.FINER, "Creating Replacement for the ElasticsearchSender during Serialization");
-            this.ros = new RemoteOutputStream(new CloseProofOutputStream(ess.out));
+            this.ros = ess.out == null ? null : new RemoteOutputStream(new CloseProofOutputStream(ess.out));
             this.config = ess.config;
             this.nodeInfo = ess.nodeInfo;
         }
 
         private Object readResolve() throws IOException {
             LOGGER.log(Level.FINER, "Creating new ElasticsearchSender during Deserialization");
-            return new ElasticsearchSender(nodeInfo, config, new GCFlushedOutputStream(new DelayBufferedOutputStream(ros, tuning)));
+            if (ros == null) {
+                // nothing is written to a local log file
+                return new ElasticsearchSender(nodeInfo, config, null);
+            }
+            String description = "output of " + config.getUniqueId() + (nodeInfo == null ? "" : " (" + nodeInfo + ")");
+            return new ElasticsearchSender(nodeInfo, config, new GCFlushedOutputStream(new DelayBufferedOutputStream(ros, tuning), description));
         }
 
     }
 
-    private class ElasticsearchOutputStream extends LineTransformationOutputStream {
+    private class ElasticsearchOutputStream extends LineOutputStream {
         @Override
         public void write(int b) throws IOException {
             if (forwardingLogger != null) {
@@ -148,15 +158,50 @@ public class ElasticsearchSender implements BuildListener, Closeable {
             super.write(b);
         }
 
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (forwardingLogger != null) {
+                forwardingLogger.write(b, off, len);
+            }
+            super.write(b, off, len);
+        }
+
         private static final String EVENT_TYPE_MESSAGE = "Message";
         private @CheckForNull OutputStream forwardingLogger;
 
+        // set while the chunks of a split message are sent
+        private @CheckForNull String messageId;
+        private int messageCount;
+
         public ElasticsearchOutputStream(@CheckForNull OutputStream logger) {
+            super(config.getMaxLineLength());
             this.forwardingLogger = logger;
         }
 
         @Override
         protected void eol(byte[] b, int len) throws IOException {
+            try {
+                send(b, len);
+            }
+            finally {
+                messageId = null;
+            }
+        }
+
+        /*
+         * Sends a chunk of a line longer than the maximum line length, which
+         * shares the messageId with the following chunks.
+         */
+        @Override
+        protected void partialLine(byte[] b, int len) throws IOException {
+            if (messageId == null) {
+                messageId = UUID.randomUUID().toString();
+                messageCount = 0;
+            }
+            send(b, len);
+        }
+
+        private void send(byte[] b, int len) throws IOException {
             Map<String, Object> data = config.createData();
 
             data.put(ElasticsearchGraphListener.EVENT_TYPE, eventPrefix + EVENT_TYPE_MESSAGE);
@@ -167,6 +212,8 @@ public class ElasticsearchSender implements BuildListener, Closeable {
             ConsoleNotes.parse(b, len, data, config.isSaveAnnotations());
 
             for (Map<String, Object> chunk: split(data)) {
+                chunk.put(EventFieldNames.SENDER_ID, senderId);
+                chunk.put(EventFieldNames.SEQUENCE, sequence.incrementAndGet());
                 if (LOGGER.isLoggable(Level.FINEST)) {
                     String jsonDataString = JSONObject.fromObject(chunk).toString();
                     LOGGER.log(Level.FINEST, "Sending data: {0}", jsonDataString);
@@ -181,14 +228,19 @@ public class ElasticsearchSender implements BuildListener, Closeable {
             if (data.containsKey(ConsoleNotes.MESSAGE_KEY)) {
                 String message = (String) data.get(ConsoleNotes.MESSAGE_KEY);
                 int maxLength = config.getSplitMessagesLongerThan();
-                if (message.length() > maxLength) {
-                    String messageId = UUID.randomUUID().toString();
-                    Integer messageCount = 0;
-                    for (String part: Splitter.fixedLength(maxLength).split(message)) {
+                if (message.length() > maxLength || messageId != null) {
+                    if (messageId == null) {
+                        messageId = UUID.randomUUID().toString();
+                        messageCount = 0;
+                    }
+                    boolean first = true;
+                    for (String part: Splitter.fixedLength(Math.max(maxLength, 1)).split(message)) {
                         Map<String, Object> chunk = new HashMap<>(data);
-                        if (messageCount > 0) {
+                        if (!first) {
+                            // positions refer to the message of the first chunk
                             chunk.remove(ConsoleNotes.ANNOTATIONS_KEY);
                         }
+                        first = false;
                         chunk.put("messageId", messageId);
                         chunk.put("messageCount", messageCount);
                         chunk.put(ConsoleNotes.MESSAGE_KEY, part);
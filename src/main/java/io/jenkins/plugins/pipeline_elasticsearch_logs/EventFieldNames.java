@@ -12,5 +12,7 @@ public final class EventFieldNames {
   public static final String RUN_ID = "runId";
   public static final String TIMESTAMP_MILLIS = "timestampMillis";
   public static final String TIMESTAMP = "timestamp";
+  public static final String SENDER_ID = "senderId";
+  public static final String SEQUENCE = "sequence";
   public static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSSX");
 }
@@ -29,25 +29,48 @@ import java.io.BufferedOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.ref.PhantomReference;
-import java.lang.ref.ReferenceQueue;
-import java.util.concurrent.TimeUnit;
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import jenkins.util.Timer;
-
 /**
  * A stream which will be flushed before garbage collection.
  * {@link BufferedOutputStream} does not do this automatically.
+ * <p>
+ * In contrast to the original, streams are flushed by a {@link Cleaner} with
+ * its own thread as soon as they have become unreachable, instead of polling
+ * a reference queue every 10 seconds. Streams which are closed are not
+ * flushed again. As every stream flushed this way has not been closed, the
+ * first one is logged at INFO, further ones at FINE, with the description of
+ * the stream and the number of such streams so far.
+ * </p>
  */
 final class GCFlushedOutputStream extends FilterOutputStream {
 
     private static final Logger LOGGER = Logger.getLogger(GCFlushedOutputStream.class.getName());
 
+    private static final Cleaner cleaner = Cleaner.create(r -> new Thread(r, "GCFlushedOutputStream cleaner"));
+
+    // streams flushed because they have not been closed
+    private static final AtomicLong gcFlushCount = new AtomicLong();
+
+    private final Flush flush;
+    private final Cleaner.Cleanable cleanable;
+
     GCFlushedOutputStream(OutputStream out) {
+        this(out, String.valueOf(out));
+    }
+
+    /**
+     * @param description
+     *     Describes the stream in the log message if it is flushed before
+     *     garbage collection, e.g. the log or the run it belongs to.
+     */
+    GCFlushedOutputStream(OutputStream out, String description) {
         super(out);
-        FlushRef.register(this, out);
+        this.flush = new Flush(out, description);
+        this.cleanable = cleaner.register(this, flush);
     }
 
     @Override
@@ -55,6 +78,26 @@ final class GCFlushedOutputStream extends FilterOutputStream {
         out.write(b, off, len); // super method is surprising
     }
 
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            flush.closed = true;
+            // unregisters
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * @return the number of streams which have been flushed before garbage
+     *     collection, i.e. which have not been closed. A growing number
+     *     indicates listeners which are not closed properly.
+     */
+    static long getGCFlushCount() {
+        return gcFlushCount.get();
+    }
+
     @Override
     public String toString() {
         return "GCFlushedOutputStream[" + out + "]";
@@ -62,40 +105,36 @@ final class GCFlushedOutputStream extends FilterOutputStream {
 
     /**
      * Flushes streams prior to garbage collection. ({@link BufferedOutputStream}
-     * does not do this automatically.) TODO Java 9+ could use java.util.Cleaner
+     * does not do this automatically.) Must not refer to the stream itself.
      */
-    private static final class FlushRef extends PhantomReference<GCFlushedOutputStream> {
-
-        private static final ReferenceQueue<GCFlushedOutputStream> rq = new ReferenceQueue<>();
-
-        static {
-            Timer.get().scheduleWithFixedDelay(() -> {
-                while (true) {
-                    FlushRef ref = (FlushRef) rq.poll();
-                    if (ref == null) {
-                        break;
-                    }
-                    LOGGER.log(Level.FINE, "flushing {0}", ref.out);
-                    try {
-                        ref.out.flush();
-                    } catch (IOException x) {
-                        LOGGER.log(Level.WARNING, null, x);
-                    }
-                }
-            }, 0, 10, TimeUnit.SECONDS);
-        }
-
-        static void register(GCFlushedOutputStream fos, OutputStream out) {
-            new FlushRef(fos, out, rq).enqueue();
-        }
+    private static final class Flush implements Runnable {
 
         private final OutputStream out;
+        private final String description;
+        private volatile boolean closed;
 
-        private FlushRef(GCFlushedOutputStream fos, OutputStream out, ReferenceQueue<GCFlushedOutputStream> rq) {
-            super(fos, rq);
+        Flush(OutputStream out, String description) {
             this.out = out;
+            this.description = description;
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            long count = gcFlushCount.incrementAndGet();
+            // the first one is worth noticing, a listener might not be closed properly
+            LOGGER.log(count == 1 ? Level.INFO : Level.FINE,
+                "Flushing {0} before garbage collection as it has not been closed, {1} stream(s) flushed this way so far",
+                new Object[] {description, count});
+            try {
+                out.flush();
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, null, x);
+            }
         }
 
     }
 
-}
\ No newline at end of file
+}
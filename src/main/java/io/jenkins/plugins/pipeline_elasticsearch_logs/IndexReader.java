@@ -0,0 +1,158 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Reads the transitions of a <code>log-index</code> file sequentially.
+ * <p>
+ * Each line of the index consists of the position in the log file where a
+ * transition occurs, optionally followed by a space and the ID of the node
+ * the following output belongs to. Lines are parsed directly from a byte
+ * buffer, i.e. without creating intermediate strings, except for the node ID.
+ * </p>
+ * <p>
+ * A final line without line separator is considered incomplete (the writer
+ * might not have finished it yet) and is not returned.
+ * </p>
+ */
+final class IndexReader implements TransitionReader {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexReader.class.getName());
+
+    private final InputStream in;
+    private final String name;
+
+    private final byte[] buf = new byte[8192];
+    private int bufPos = 0;
+    private int bufLen = 0;
+
+    private byte[] line = new byte[64];
+
+    // bytes consumed up to the end of the last complete line
+    private long consumed = 0;
+
+    private long position = -1;
+    private String id;
+
+    /**
+     * @param in
+     *     The stream to read the index from. Gets closed when this reader
+     *     is closed.
+     * @param name
+     *     The name of the index used in log messages.
+     */
+    IndexReader(@Nonnull InputStream in, @Nonnull String name) {
+        this.in = in;
+        this.name = name;
+    }
+
+    /**
+     * Advances to the next transition. Corrupt lines are skipped.
+     *
+     * @return <code>false</code> if there is no further complete line.
+     */
+    @Override
+    public boolean next() throws IOException {
+        while (true) {
+            int len = readLine();
+            if (len < 0) {
+                return false;
+            }
+            if (parse(len)) {
+                return true;
+            }
+            LOGGER.warning("Ignoring corrupt index file " + name);
+        }
+    }
+
+    @Override
+    public long getPosition() {
+        return this.position;
+    }
+
+    @Override
+    @CheckForNull
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the number of bytes read up to the end of the current line.
+     */
+    @Override
+    public long getConsumedBytes() {
+        return this.consumed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /*
+     * Copies the next complete line into this.line and returns its length
+     * without line separator, or -1 if there is no further complete line.
+     */
+    private int readLine() throws IOException {
+        int len = 0;
+        while (true) {
+            if (bufPos == bufLen) {
+                bufLen = in.read(buf);
+                bufPos = 0;
+                if (bufLen <= 0) {
+                    bufLen = 0;
+                    return -1;
+                }
+            }
+            int start = bufPos;
+            while (bufPos < bufLen && buf[bufPos] != '\n') {
+                bufPos++;
+            }
+            int n = bufPos - start;
+            if (len + n > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, len + n));
+            }
+            System.arraycopy(buf, start, line, len, n);
+            len += n;
+            if (bufPos < bufLen) {
+                // skip '\n'
+                bufPos++;
+                consumed += len + 1;
+                if (len > 0 && line[len - 1] == '\r') {
+                    len--;
+                }
+                return len;
+            }
+        }
+    }
+
+    private boolean parse(int len) {
+        int i = 0;
+        long pos = 0;
+        while (i < len && line[i] != ' ') {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9 || pos > (Long.MAX_VALUE - digit) / 10) {
+                return false;
+            }
+            pos = pos * 10 + digit;
+            i++;
+        }
+        if (i == 0) {
+            return false;
+        }
+        this.position = pos;
+        if (i == len) {
+            this.id = null;
+        } else {
+            this.id = new String(line, i + 1, len - i - 1, StandardCharsets.UTF_8);
+        }
+        return true;
+    }
+}
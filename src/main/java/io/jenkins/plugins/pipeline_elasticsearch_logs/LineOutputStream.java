@@ -0,0 +1,175 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Filter {@link OutputStream} that calls {@link #eol(byte[], int)} for each
+ * line, like {@link hudson.console.LineTransformationOutputStream}.
+ * <p>
+ * In contrast to the latter, {@link #write(byte[], int, int)} scans the given
+ * bytes for newlines in bulk instead of processing them one by one. Lines
+ * completely contained in the given bytes starting at offset 0 are passed to
+ * {@link #eol(byte[], int)} without copying them, all other lines are
+ * collected in a buffer first.
+ * </p>
+ * <p>
+ * Optionally the length of a line is limited, so that output without
+ * newlines does not need an unbounded buffer. A longer line is passed in
+ * chunks to {@link #partialLine(byte[], int)}, followed by the last chunk
+ * passed to {@link #eol(byte[], int)}. Chunks do not end within a UTF-8
+ * encoded character.
+ * </p>
+ */
+abstract class LineOutputStream extends OutputStream {
+
+    private static final int LF = 0x0A;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    // 0 if unlimited
+    private final int maxLineLength;
+
+    // the incomplete line
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int count;
+
+    LineOutputStream() {
+        this(0);
+    }
+
+    /**
+     * @param maxLineLength
+     *     The maximum number of bytes passed to a single call of
+     *     {@link #eol(byte[], int)} or {@link #partialLine(byte[], int)}, 0
+     *     if unlimited.
+     */
+    LineOutputStream(int maxLineLength) {
+        // at least one UTF-8 encoded character must fit
+        this.maxLineLength = maxLineLength <= 0 ? 0 : Math.max(maxLineLength, 4);
+    }
+
+    /**
+     * Called for each complete line.
+     *
+     * @param b
+     *     Contains the line, including the newline, starting at offset 0.
+     *     Must not be used after this method has returned.
+     * @param len
+     *     The length of the line.
+     */
+    protected abstract void eol(byte[] b, int len) throws IOException;
+
+    /**
+     * Called for each chunk of a line longer than the maximum line length
+     * except the last one, which is passed to {@link #eol(byte[], int)}.
+     * Calls {@link #eol(byte[], int)} by default.
+     *
+     * @param b
+     *     Contains the chunk starting at offset 0. Must not be used after
+     *     this method has returned.
+     * @param len
+     *     The length of the chunk.
+     */
+    protected void partialLine(byte[] b, int len) throws IOException {
+        eol(b, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (maxLineLength > 0 && count == maxLineLength) {
+            splitLine();
+        }
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+        if (b == LF) {
+            eol();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] == LF) {
+                if (count == 0 && start == 0 && (maxLineLength == 0 || i < maxLineLength)) {
+                    eol(b, i + 1);
+                } else {
+                    append(b, start, i + 1 - start);
+                    eol();
+                }
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            append(b, start, end - start);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, capacity));
+        }
+    }
+
+    private void append(byte[] b, int off, int len) throws IOException {
+        while (maxLineLength > 0 && count + len > maxLineLength) {
+            int n = maxLineLength - count;
+            ensureCapacity(maxLineLength);
+            System.arraycopy(b, off, buf, count, n);
+            count = maxLineLength;
+            off += n;
+            len -= n;
+            splitLine();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /*
+     * Passes the buffered bytes up to the last complete character to
+     * partialLine() and keeps the rest.
+     */
+    private void splitLine() throws IOException {
+        int cut = count;
+        // the lead byte of the last character
+        int lead = count - 1;
+        while (lead > 0 && lead > count - 4 && (buf[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        int b = buf[lead] & 0xFF;
+        int charLength = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        if (lead > 0 && lead + charLength > count) {
+            cut = lead;
+        }
+        partialLine(buf, cut);
+        System.arraycopy(buf, cut, buf, 0, count - cut);
+        count -= cut;
+    }
+
+    private void eol() throws IOException {
+        eol(buf, count);
+        count = 0;
+        if (buf.length > 4096) {
+            // do not keep the buffer of a single long line
+            buf = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Passes an incomplete last line to {@link #eol(byte[], int)}.
+     */
+    public void forceEol() throws IOException {
+        if (count > 0) {
+            eol();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        forceEol();
+    }
+}
@@ -0,0 +1,120 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The uncompressed copies of logs returned by
+ * {@link ElasticsearchLogStorage#getLogFile}, for logs which are compressed or
+ * only stored in Elasticsearch.
+ * <p>
+ * The copies are located in a directory below the temporary directory instead
+ * of the build directory. A copy is deleted once it has not been requested for
+ * some time, or if the total size of the copies exceeds a limit, in which case
+ * the least recently requested ones are deleted first. The time of the last
+ * request is the modification time of a copy, and the directory is cleaned
+ * whenever a copy is requested, i.e. copies left over by a previous JVM are
+ * deleted as well. No background thread is required.
+ * </p>
+ */
+final class LogCopies {
+
+    private static final Logger LOGGER = Logger.getLogger(LogCopies.class.getName());
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong(LogCopies.class.getName() + ".maxAgeMinutes", 60));
+    private static final long MAX_SIZE = Long.getLong(LogCopies.class.getName() + ".maxSizeMB", 1024) * 1024 * 1024;
+
+    static final LogCopies INSTANCE = new LogCopies(
+        new File(System.getProperty("java.io.tmpdir"), "pipeline-elasticsearch-logs"),
+        MAX_AGE_MILLIS,
+        MAX_SIZE,
+        System::currentTimeMillis);
+
+    private final File dir;
+    private final long maxAgeMillis;
+    private final long maxSize;
+    private final LongSupplier clock;
+
+    /**
+     * @param dir
+     *     The directory of the copies, created on demand.
+     * @param maxAgeMillis
+     *     The time after which copies not requested anymore are deleted.
+     * @param maxSize
+     *     The total size of the copies above which the least recently
+     *     requested ones are deleted.
+     * @param clock
+     *     Provides the current time in milliseconds.
+     */
+    LogCopies(@Nonnull File dir, long maxAgeMillis, long maxSize, @Nonnull LongSupplier clock) {
+        this.dir = dir;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the location of the copy of the given log. The copy might not
+     * exist yet. It is written by the caller, which is responsible for not
+     * writing it concurrently, e.g. via a temporary file in the same
+     * directory, and has to call {@link #requested(File)} afterwards.
+     */
+    @Nonnull
+    File getCopy(@Nonnull File log) {
+        dir.mkdirs();
+        // unique per log, i.e. per build
+        String name = UUID.nameUUIDFromBytes(log.getAbsolutePath().getBytes(StandardCharsets.UTF_8)).toString();
+        return new File(dir, name + ".log");
+    }
+
+    /**
+     * Records that the given copy has been requested, i.e. it is kept for
+     * the maximum age from now on, and deletes the copies which are too old
+     * or exceed the maximum size.
+     */
+    void requested(@Nonnull File copy) {
+        long now = clock.getAsLong();
+        if (!copy.setLastModified(now)) {
+            LOGGER.log(Level.FINE, "Failed to update the modification time of {0}", copy);
+        }
+        synchronized (this) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            // snapshot, as copies might be requested concurrently
+            long[][] stats = new long[files.length][];
+            long size = 0;
+            for (int i = 0; i < files.length; i++) {
+                stats[i] = new long[] {files[i].lastModified(), files[i].length(), i};
+                size += stats[i][1];
+            }
+            // the least recently requested first
+            Arrays.sort(stats, Comparator.comparingLong(stat -> stat[0]));
+            for (long[] stat : stats) {
+                File file = files[(int) stat[2]];
+                boolean expired = now - stat[0] > maxAgeMillis;
+                // copies being written are only deleted if left over
+                boolean writing = file.getName().endsWith(".tmp");
+                // the copy just requested is kept in any case
+                if ((expired || size > maxSize && !writing) && !file.equals(copy)) {
+                    // fails on some platforms while the copy is being read
+                    if (file.delete()) {
+                        size -= stat[1];
+                    } else {
+                        LOGGER.log(Level.FINE, "Failed to delete {0}, retrying later", file);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.Nonnull;
+
+import org.kohsuke.stapler.framework.io.ByteBuffer;
+
+/**
+ * A read-only {@link ByteBuffer} presenting the concatenation of some byte
+ * ranges of a log.
+ * <p>
+ * {@link hudson.console.AnnotatedLargeText} accepts a {@link ByteBuffer}
+ * as source of in-memory content only, because <code>LargeText.Source</code>
+ * is not public. This subclass does not hold the content in memory but
+ * streams it from the log (see {@link LogReader}) on each read. This way the
+ * memory required per request is constant and the content is not limited to
+ * 2GiB.
+ * </p>
+ */
+final class LogRangesByteBuffer extends ByteBuffer {
+
+    private final LogReader.Factory readerFactory;
+
+    // used in messages only
+    private final String name;
+
+    // pairs of start (inclusive) and end (exclusive) positions
+    private final long[] ranges;
+
+    private final long length;
+
+    /**
+     * @param readerFactory
+     *     Opens readers for the log.
+     * @param name
+     *     The name of the log used in messages.
+     * @param ranges
+     *     Pairs of start (inclusive) and end (exclusive) positions in the
+     *     log.
+     */
+    LogRangesByteBuffer(@Nonnull LogReader.Factory readerFactory, @Nonnull String name, @Nonnull long[] ranges) {
+        this.readerFactory = readerFactory;
+        this.name = name;
+        this.ranges = ranges.clone();
+        long sum = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            sum += ranges[i + 1] - ranges[i];
+        }
+        this.length = sum;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        throw new IOException("read-only buffer");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        throw new IOException("read-only buffer");
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+        if (this.length == 0) {
+            return;
+        }
+        try (LogReader reader = readerFactory.open()) {
+            WritableByteChannel target = Channels.newChannel(os);
+            for (int i = 0; i < ranges.length; i += 2) {
+                long count = ranges[i + 1] - ranges[i];
+                if (reader.transferTo(ranges[i], count, target) < count) {
+                    throw new IOException("Unexpected end of log " + name);
+                }
+            }
+        }
+    }
+
+    @Override
+    public InputStream newInputStream() {
+        return new RangesInputStream();
+    }
+
+    @Override
+    public String toString() {
+        return "LogRangesByteBuffer[" + name + ", " + length + " bytes]";
+    }
+
+    private final class RangesInputStream extends InputStream {
+
+        // opened lazily on first read
+        private LogReader reader;
+
+        // the current range (index of its start position) and the current
+        // position within the log
+        private int rangeIndex = 0;
+        private long pos = ranges.length > 0 ? ranges[0] : 0;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n <= 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advanceToNonEmptyRange()) {
+                return -1;
+            }
+            if (reader == null) {
+                reader = readerFactory.open();
+            }
+            int n = (int) Math.min(len, ranges[rangeIndex + 1] - pos);
+            n = reader.read(pos, b, off, n);
+            if (n < 0) {
+                throw new IOException("Unexpected end of log " + name);
+            }
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && advanceToNonEmptyRange()) {
+                long step = Math.min(n - skipped, ranges[rangeIndex + 1] - pos);
+                pos += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            if (rangeIndex >= ranges.length) {
+                return 0;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, ranges[rangeIndex + 1] - pos);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+
+        /*
+         * Moves to the next range if the current one is exhausted.
+         * Returns false at the end of the last range.
+         */
+        private boolean advanceToNonEmptyRange() {
+            while (rangeIndex < ranges.length && pos >= ranges[rangeIndex + 1]) {
+                rangeIndex += 2;
+                if (rangeIndex < ranges.length) {
+                    pos = ranges[rangeIndex];
+                }
+            }
+            return rangeIndex < ranges.length;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reads the content of a log at arbitrary positions.
+ */
+interface LogReader extends Closeable {
+
+    /**
+     * Reads up to <code>len</code> bytes starting at the given position.
+     *
+     * @return the number of bytes read, or -1 if the position is at or beyond
+     *     the end of the log.
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Writes <code>count</code> bytes starting at the given position to the
+     * given channel.
+     *
+     * @return the number of bytes written, less than <code>count</code> only
+     *     if the end of the log has been reached.
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * Opens new readers for a log.
+     */
+    @FunctionalInterface
+    interface Factory {
+        @Nonnull
+        LogReader open() throws IOException;
+    }
+
+    /**
+     * Opens a reader for an uncompressed log file.
+     */
+    @Nonnull
+    static LogReader open(@Nonnull File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new LogReader() {
+            @Override
+            public int read(long position, byte[] b, int off, int len) throws IOException {
+                return channel.read(ByteBuffer.wrap(b, off, len), position);
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                long transferred = 0;
+                while (transferred < count) {
+                    long n = channel.transferTo(position + transferred, count - transferred, target);
+                    if (n <= 0) {
+                        break;
+                    }
+                    transferred += n;
+                }
+                return transferred;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
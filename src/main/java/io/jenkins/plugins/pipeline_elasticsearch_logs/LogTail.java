@@ -0,0 +1,257 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * The most recent output of a running build kept in memory.
+ * <p>
+ * A ring of the bytes appended to the log file last, together with the
+ * transitions of the step index at or after the oldest of these bytes.
+ * Progressive console viewers usually only request the output written since
+ * their previous request, which can be served from the ring without flushing
+ * the log, opening the log file or reading the index. This way the cost of
+ * many concurrent viewers of the same build is about the same as of a single
+ * one.
+ * </p>
+ * <p>
+ * Positions are positions in the log file. Bytes are written to the tail
+ * when they are appended to the (buffered) log file, i.e. the tail may be
+ * ahead of the file content.
+ * </p>
+ */
+final class LogTail extends OutputStream {
+
+    private final byte[] ring;
+
+    // position of the oldest byte in the ring
+    private long start;
+    // position following the newest byte in the ring
+    private long end;
+
+    // transitions at or after start
+    private final Deque<Transition> transitions = new ArrayDeque<>();
+
+    /**
+     * @param capacity
+     *     The maximum number of bytes kept.
+     * @param position
+     *     The current length of the log file, i.e. the position of the next
+     *     byte written.
+     */
+    LogTail(int capacity, long position) {
+        this.ring = new byte[capacity];
+        this.start = position;
+        this.end = position;
+    }
+
+    /**
+     * @return the position of the oldest byte available.
+     */
+    synchronized long start() {
+        return this.start;
+    }
+
+    /**
+     * @return the position following the newest byte available.
+     */
+    synchronized long end() {
+        return this.end;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (len >= ring.length) {
+            // only the last bytes are kept
+            off += len - ring.length;
+            this.end += len - ring.length;
+            len = ring.length;
+        }
+        int index = (int) (this.end % ring.length);
+        int n = Math.min(len, ring.length - index);
+        System.arraycopy(b, off, ring, index, n);
+        System.arraycopy(b, off + n, ring, 0, len - n);
+        this.end += len;
+        if (this.end - this.start > ring.length) {
+            this.start = this.end - ring.length;
+            while (!transitions.isEmpty() && transitions.peekFirst().position < this.start) {
+                transitions.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Adds a transition at the current end.
+     */
+    synchronized void addTransition(@CheckForNull String id) {
+        transitions.addLast(new Transition(this.end, id));
+    }
+
+    /**
+     * Opens a reader for the whole log. Bytes no longer kept in memory are
+     * read with a reader opened by the given factory, which is only called
+     * when required. The factory must make sure that all bytes written to
+     * the tail so far are in the file, i.e. flush the log.
+     */
+    @Nonnull
+    LogReader openReader(@Nonnull LogReader.Factory fallback) {
+        return new TailReader(fallback);
+    }
+
+    /**
+     * Returns the transitions at or after the given position, or
+     * <code>null</code> if the transitions before the given position are no
+     * longer kept.
+     */
+    @CheckForNull
+    synchronized TransitionReader openTransitionReader(long position) {
+        if (position < this.start) {
+            return null;
+        }
+        List<Transition> result = new ArrayList<>();
+        for (Transition t : transitions) {
+            if (t.position >= position) {
+                result.add(t);
+            }
+        }
+        return new SnapshotTransitionReader(result);
+    }
+
+    /*
+     * Copies bytes from the ring.
+     *
+     * Returns the number of bytes copied, -1 if the position is at or beyond
+     * the end, or -2 if the position is no longer kept.
+     */
+    private synchronized int copy(long position, byte[] b, int off, int len) {
+        if (position < this.start) {
+            return -2;
+        }
+        if (position >= this.end) {
+            return -1;
+        }
+        int index = (int) (position % ring.length);
+        int n = (int) Math.min(Math.min(len, this.end - position), ring.length - index);
+        System.arraycopy(ring, index, b, off, n);
+        return n;
+    }
+
+    private static final class Transition {
+        final long position;
+        final String id;
+
+        Transition(long position, String id) {
+            this.position = position;
+            this.id = id;
+        }
+    }
+
+    private final class TailReader implements LogReader {
+
+        private final LogReader.Factory fallbackFactory;
+        private LogReader fallback;
+        // the bytes before this position are in the file read by the fallback
+        private long fallbackEnd;
+
+        TailReader(LogReader.Factory fallbackFactory) {
+            this.fallbackFactory = fallbackFactory;
+        }
+
+        @Override
+        public int read(long position, byte[] b, int off, int len) throws IOException {
+            int n = copy(position, b, off, len);
+            if (n != -2) {
+                return n;
+            }
+            if (fallback == null || position >= fallbackEnd) {
+                // bytes dropped from the ring since might not be in the file yet
+                if (fallback != null) {
+                    fallback.close();
+                    fallback = null;
+                }
+                fallbackEnd = start();
+                fallback = fallbackFactory.open();
+            }
+            return fallback.read(position, b, off, (int) Math.min(len, fallbackEnd - position));
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            byte[] buf = new byte[8192];
+            long transferred = 0;
+            while (transferred < count) {
+                int n = read(position + transferred, buf, 0, (int) Math.min(buf.length, count - transferred));
+                if (n < 0) {
+                    break;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                while (bb.hasRemaining()) {
+                    target.write(bb);
+                }
+                transferred += n;
+            }
+            return transferred;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fallback != null) {
+                fallback.close();
+            }
+        }
+    }
+
+    private static final class SnapshotTransitionReader implements TransitionReader {
+
+        private final List<Transition> transitions;
+        private int index = -1;
+
+        SnapshotTransitionReader(List<Transition> transitions) {
+            this.transitions = transitions;
+        }
+
+        @Override
+        public boolean next() {
+            if (index + 1 >= transitions.size()) {
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        @Override
+        public long getPosition() {
+            return transitions.get(index).position;
+        }
+
+        @Override
+        @CheckForNull
+        public String getId() {
+            return transitions.get(index).id;
+        }
+
+        @Override
+        public long getConsumedBytes() {
+            // there are no bytes, the number of transitions read instead
+            return index + 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.Map;
 
 import javax.annotation.CheckForNull;
@@ -23,6 +24,8 @@ import org.jenkinsci.plugins.workflow.support.steps.StageStep;
 public class NodeInfo implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    static final String STEP = "step";
+
     protected final String nodeId;
     protected final String stepName;
     protected final String stageName;
@@ -32,33 +35,39 @@ public class NodeInfo implements Serializable {
     protected final String agentName;
     protected final String displayName;
 
+    /**
+     * Creates the info without caching the contexts of enclosing blocks.
+     */
     public NodeInfo(FlowNode node) {
+        this(node, null);
+    }
 
-        FlowNode stage = getStage(node);
-        FlowNode parallelBranch = getParallelBranch(node);
-        String stageName = null;
-        String stageId = null;
-        String parallelBranchName = null;
-        String parallelBranchId = null;
-
-        if (stage != null) {
-            stageId = stage.getId();
-            LabelAction labelAction = stage.getAction(LabelAction.class);
-            if (labelAction != null) {
-                stageName = labelAction.getDisplayName();
-            }
+    /**
+     * @param contexts
+     *            The cache of the contexts of the block start nodes of the run
+     *            by node ID, see {@link RunRegistry.Entry#getNodeContexts()}, or
+     *            null if nothing is cached.
+     */
+    NodeInfo(FlowNode node, @CheckForNull Map<String, Context> contexts) {
+
+        Context enclosing = getEnclosingContext(node, contexts);
+        String stageName = enclosing.stageName;
+        String stageId = enclosing.stageId;
+        String parallelBranchName = enclosing.parallelBranchName;
+        String parallelBranchId = enclosing.parallelBranchId;
+
+        if (isStageNode(node)) {
+            stageId = node.getId();
+            stageName = node.getAction(LabelAction.class).getDisplayName();
         }
 
-        if (parallelBranch != null) {
-            parallelBranchId = parallelBranch.getId();
-            ThreadNameAction labelAction = parallelBranch.getAction(ThreadNameAction.class);
-            if (labelAction != null) {
-                parallelBranchName = labelAction.getThreadName();
-            }
+        if (isParallelBranchNode(node)) {
+            parallelBranchId = node.getId();
+            parallelBranchName = node.getAction(ThreadNameAction.class).getThreadName();
         }
 
         this.stepName = getStepName(node);
-        this.agentName = getAgentName(node);
+        this.agentName = enclosing.agentName;
         this.nodeId = node.getId();
         this.stageName = stageName;
         this.stageId = stageId;
@@ -77,7 +86,7 @@ public class NodeInfo implements Serializable {
     public void appendNodeInfo(Map<String, Object> data) {
         data.put("flowNodeId", nodeId);
         if (stepName != null) {
-            data.put("step", stepName);
+            data.put(STEP, stepName);
         }
         if (stageName != null) {
             data.put("stageName", stageName);
@@ -100,27 +109,36 @@ public class NodeInfo implements Serializable {
     }
 
     /**
-     * Returns the FlowNode of a stage step that encloses the given FlowNode or the current FlowNode if it is a stage.
+     * Returns the stage, parallel branch and agent enclosing the given FlowNode.
+     * <p>
+     * Only the immediate enclosing block is looked up. Its context is derived from
+     * the context of its own enclosing block, and cached in the given map.
+     * </p>
      *
      * @param node
      *            The FlowNode to check.
-     * @return The BlockStartNode representing the start of the stage step or null if not inside a
-     *         stage.
+     * @param contexts
+     *            The cache of the run, or null.
+     * @return The context, with null values if not inside a stage, parallel branch
+     *         or agent.
      */
-    private @CheckForNull FlowNode getStage(FlowNode node) {
-        if (isStageNode(node)) {
-            return node;
-        }
-
-        for (BlockStartNode bsn : node.iterateEnclosingBlocks()) {
-            if (isStageNode(bsn)) {
-                return bsn;
+    private static Context getEnclosingContext(FlowNode node, @CheckForNull Map<String, Context> contexts) {
+        Iterator<BlockStartNode> enclosingBlocks = node.iterateEnclosingBlocks().iterator();
+        if (!enclosingBlocks.hasNext()) {
+            return Context.NONE;
+        }
+        BlockStartNode bsn = enclosingBlocks.next();
+        Context context = contexts != null ? contexts.get(bsn.getId()) : null;
+        if (context == null) {
+            context = new Context(bsn, getEnclosingContext(bsn, contexts));
+            if (context.complete && contexts != null) {
+                contexts.put(bsn.getId(), context);
             }
         }
-        return null;
+        return context;
     }
 
-    private boolean isStageNode(FlowNode node) {
+    static boolean isStageNode(FlowNode node) {
         if (node instanceof StepNode) {
             StepDescriptor descriptor = ((StepNode) node).getDescriptor();
             if (descriptor instanceof StageStep.DescriptorImpl) {
@@ -134,29 +152,7 @@ public class NodeInfo implements Serializable {
         return false;
     }
 
-    /**
-     * Returns the FlowNode of a parallel branch step that encloses the given FlowNode.
-     *
-     * @param node
-     *            The FlowNode to check.
-     * @return The BlockStartNode representing the start of the parallel branch step or null if not
-     *         inside a parallel branch.
-     */
-    private @CheckForNull FlowNode getParallelBranch(FlowNode node) {
-
-        if (isParallelBranchNode(node)) {
-            return node;
-        }
-        for (BlockStartNode bsn : node.iterateEnclosingBlocks()) {
-            if (isParallelBranchNode(node)) {
-                return bsn;
-            }
-        }
-
-        return null;
-    }
-
-    private boolean isParallelBranchNode(FlowNode node) {
+    private static boolean isParallelBranchNode(FlowNode node) {
         if (node instanceof StepNode) {
             StepDescriptor descriptor = ((StepNode) node).getDescriptor();
             if (descriptor instanceof ParallelStep.DescriptorImpl) {
@@ -170,38 +166,84 @@ public class NodeInfo implements Serializable {
         return false;
     }
 
+    private String getStepName(FlowNode node) {
+        String stepName = null;
+        if (node instanceof StepNode) {
+            StepDescriptor descriptor = ((StepNode) node).getDescriptor();
+            if (descriptor != null) {
+                stepName = descriptor.getFunctionName();
+            }
+        }
+        return stepName;
+    }
+
     /**
-     * Returns the name of the agent this FlowNode is running on.
-     *
-     * @param node
-     *            The FlowNode to check
-     * @return The name of the agent or null if not running on an agent.
+     * The stage, parallel branch and agent inside the body of a block.
      */
-    private String getAgentName(FlowNode node) {
-        for (BlockStartNode bsn : node.iterateEnclosingBlocks()) {
+    static final class Context {
+
+        static final Context NONE = new Context();
+
+        final String stageName;
+        final String stageId;
+        final String parallelBranchName;
+        final String parallelBranchId;
+        final String agentName;
+
+        /**
+         * False if some information might still be added to the block or one of its
+         * enclosing blocks, e.g. the workspace of an agent which has not been allocated
+         * yet. Such a context is not cached.
+         */
+        final boolean complete;
+
+        private Context() {
+            this.stageName = null;
+            this.stageId = null;
+            this.parallelBranchName = null;
+            this.parallelBranchId = null;
+            this.agentName = null;
+            this.complete = true;
+        }
+
+        Context(BlockStartNode bsn, Context enclosing) {
+            boolean complete = enclosing.complete;
+            String stageName = enclosing.stageName;
+            String stageId = enclosing.stageId;
+            String parallelBranchName = enclosing.parallelBranchName;
+            String parallelBranchId = enclosing.parallelBranchId;
+            String agentName = enclosing.agentName;
+
             if (bsn instanceof StepNode) {
                 StepDescriptor descriptor = ((StepNode) bsn).getDescriptor();
-                if (descriptor instanceof ExecutorStep.DescriptorImpl) {
+                if (descriptor instanceof StageStep.DescriptorImpl) {
+                    LabelAction labelAction = bsn.getAction(LabelAction.class);
+                    if (labelAction != null) {
+                        stageName = labelAction.getDisplayName();
+                        stageId = bsn.getId();
+                    } else {
+                        complete = false;
+                    }
+                } else if (isParallelBranchNode(bsn)) {
+                    parallelBranchName = bsn.getAction(ThreadNameAction.class).getThreadName();
+                    parallelBranchId = bsn.getId();
+                } else if (descriptor instanceof ExecutorStep.DescriptorImpl) {
                     WorkspaceAction workspaceAction = bsn.getAction(WorkspaceAction.class);
                     if (workspaceAction != null) {
-                        return workspaceAction.getNode();
+                        agentName = workspaceAction.getNode();
+                    } else {
+                        complete = false;
                     }
                 }
             }
-        }
 
-        return null;
-    }
-
-    private String getStepName(FlowNode node) {
-        String stepName = null;
-        if (node instanceof StepNode) {
-            StepDescriptor descriptor = ((StepNode) node).getDescriptor();
-            if (descriptor != null) {
-                stepName = descriptor.getFunctionName();
-            }
+            this.stageName = stageName;
+            this.stageId = stageId;
+            this.parallelBranchName = parallelBranchName;
+            this.parallelBranchId = parallelBranchId;
+            this.agentName = agentName;
+            this.complete = complete;
         }
-        return stepName;
     }
 
     @Override
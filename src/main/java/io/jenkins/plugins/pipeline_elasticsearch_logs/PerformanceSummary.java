@@ -0,0 +1,70 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hudson.model.Result;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Aggregates the durations and results of the stages and steps of a run
+ * while it is running, so that a single summary event can be sent at its end.
+ * <p>
+ * Stages are aggregated by name, steps by step function name. Not
+ * thread-safe.
+ * </p>
+ */
+final class PerformanceSummary {
+
+    static final String STAGES = "stages";
+    static final String STEPS = "steps";
+
+    private final Map<String, Aggregate> stages = new LinkedHashMap<>();
+    private final Map<String, Aggregate> steps = new LinkedHashMap<>();
+
+    void addStage(String stageName, long duration, String result) {
+        stages.computeIfAbsent(stageName, k -> new Aggregate()).add(duration, result);
+    }
+
+    void addStep(String stepName, long duration, String result) {
+        steps.computeIfAbsent(stepName, k -> new Aggregate()).add(duration, result);
+    }
+
+    /**
+     * Appends the aggregates to the given event data.
+     */
+    void appendTo(Map<String, Object> data) {
+        data.put(STAGES, toJSON(stages, "stageName"));
+        data.put(STEPS, toJSON(steps, NodeInfo.STEP));
+    }
+
+    private static JSONArray toJSON(Map<String, Aggregate> aggregates, String nameField) {
+        JSONArray result = new JSONArray();
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet()) {
+            Aggregate aggregate = entry.getValue();
+            JSONObject o = new JSONObject();
+            o.put(nameField, entry.getKey());
+            o.put("count", aggregate.durations.getCount());
+            o.put("failures", aggregate.failures);
+            o.put("duration", aggregate.durations.getTotal());
+            o.put("durationP50", aggregate.durations.getPercentile(50));
+            o.put("durationP95", aggregate.durations.getPercentile(95));
+            o.put("durationMax", aggregate.durations.getMax());
+            result.add(o);
+        }
+        return result;
+    }
+
+    private static final class Aggregate {
+        final DurationHistogram durations = new DurationHistogram();
+        long failures;
+
+        void add(long duration, String result) {
+            durations.add(duration);
+            if (Result.FAILURE.toString().equals(result)) {
+                failures++;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.RunUtils;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+
+/**
+ * Keeps track of the resources used for processing runs on the Jenkins
+ * controller, i.e. the {@link ElasticsearchRunConfig}, the event writer of the
+ * {@link ElasticsearchRunListener}, the {@link ElasticsearchGraphListener},
+ * also while it is being closed, and the contexts of the flow nodes cached by
+ * {@link NodeInfo}.
+ * <p>
+ * Lookups of registered runs do not take any lock, and registering a run only
+ * locks a small part of the underlying map. This way many runs can be started
+ * and processed in parallel without contending on a global lock.
+ * </p>
+ * <p>
+ * Entries are created on first access and MUST be removed via
+ * {@link #remove(Run)} after the run is no longer processed.
+ * </p>
+ */
+final class RunRegistry {
+
+    private static final ConcurrentMap<String, Entry> entriesByRunId = new ConcurrentHashMap<>();
+
+    private RunRegistry() {
+    }
+
+    /**
+     * The resources of a single run.
+     */
+    static final class Entry {
+
+        // null if the plugin was not configured when the entry got created
+        @CheckForNull
+        private final ElasticsearchRunConfig config;
+
+        private final AtomicReference<EventWriter> eventWriter = new AtomicReference<>();
+
+        private final AtomicReference<ElasticsearchGraphListener> graphListener = new AtomicReference<>();
+
+        // closed at the end of the flow, still sending its pending events
+        private final AtomicReference<ElasticsearchGraphListener> closingGraphListener = new AtomicReference<>();
+
+        // the channels the config has been sent to
+        private final Set<VirtualChannel> channels = ConcurrentHashMap.newKeySet();
+
+        // the contexts of the block start nodes of the flow graph by node ID
+        private final Map<String, NodeInfo.Context> nodeContexts = new ConcurrentHashMap<>();
+
+        private Entry(@CheckForNull ElasticsearchRunConfig config) {
+            this.config = config;
+        }
+
+        @CheckForNull
+        ElasticsearchRunConfig getConfig() {
+            return this.config;
+        }
+
+        /**
+         * Sets the event writer of the run listener.
+         *
+         * @return <code>false</code> if an event writer has been set already.
+         */
+        boolean setEventWriter(@Nonnull EventWriter writer) {
+            return this.eventWriter.compareAndSet(null, writer);
+        }
+
+        /**
+         * Removes the event writer of the run listener.
+         *
+         * @return the removed event writer or <code>null</code> if there is
+         *     none.
+         */
+        @CheckForNull
+        EventWriter removeEventWriter() {
+            return this.eventWriter.getAndSet(null);
+        }
+
+        /**
+         * Sets the graph listener.
+         *
+         * @return <code>false</code> if a graph listener has been set already.
+         */
+        boolean setGraphListener(@Nonnull ElasticsearchGraphListener listener) {
+            return this.graphListener.compareAndSet(null, listener);
+        }
+
+        @CheckForNull
+        ElasticsearchGraphListener getGraphListener() {
+            return this.graphListener.get();
+        }
+
+        /**
+         * Removes the graph listener.
+         *
+         * @return the removed graph listener or <code>null</code> if there is
+         *     none.
+         */
+        @CheckForNull
+        ElasticsearchGraphListener removeGraphListener() {
+            return this.graphListener.getAndSet(null);
+        }
+
+        /**
+         * Sets the graph listener which is being closed, so that the end of
+         * the run can wait for its pending events.
+         */
+        void setClosingGraphListener(@Nonnull ElasticsearchGraphListener listener) {
+            this.closingGraphListener.set(listener);
+        }
+
+        /**
+         * Removes the graph listener which is being closed.
+         *
+         * @return the removed graph listener or <code>null</code> if there is
+         *     none.
+         */
+        @CheckForNull
+        ElasticsearchGraphListener removeClosingGraphListener() {
+            return this.closingGraphListener.getAndSet(null);
+        }
+
+        /**
+         * Records that the config has been sent over the given channel.
+         */
+        void addChannel(@Nonnull VirtualChannel channel) {
+            this.channels.add(channel);
+        }
+
+        /**
+         * @return the channels the config has been sent to.
+         */
+        @Nonnull
+        Set<VirtualChannel> getChannels() {
+            return Collections.unmodifiableSet(this.channels);
+        }
+
+        /**
+         * @return the cache of the contexts of the block start nodes of the
+         *     run, see {@link NodeInfo}.
+         */
+        @Nonnull
+        Map<String, NodeInfo.Context> getNodeContexts() {
+            return this.nodeContexts;
+        }
+
+        /**
+         * Drops the cached contexts once the flow graph is complete.
+         */
+        void clearNodeContexts() {
+            this.nodeContexts.clear();
+        }
+    }
+
+    /**
+     * Returns the entry for the given run. If there is none yet, it gets
+     * created with a new {@link ElasticsearchRunConfig} based on the current
+     * plugin configuration.
+     */
+    @Nonnull
+    static Entry get(@Nonnull Run<?, ?> run) throws IOException {
+        String runId = RunUtils.getUniqueRunId(run);
+
+        // fast path without any locking
+        Entry entry = entriesByRunId.get(runId);
+        if (entry != null) {
+            return entry;
+        }
+
+        try {
+            return entriesByRunId.computeIfAbsent(runId, key -> {
+                try {
+                    return new Entry(ElasticsearchRunConfig.newInstanceOrNull(run));
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+        catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Returns the entry for the given run ID if it exists. Does not create
+     * a new entry.
+     */
+    @CheckForNull
+    static Entry getIfPresent(@Nonnull String runId) {
+        return entriesByRunId.get(runId);
+    }
+
+    /**
+     * Removes the entry for the given run.
+     *
+     * @return the removed entry or <code>null</code> if there is none.
+     */
+    @CheckForNull
+    static Entry remove(@Nonnull Run<?, ?> run) {
+        return entriesByRunId.remove(RunUtils.getUniqueRunId(run));
+    }
+}
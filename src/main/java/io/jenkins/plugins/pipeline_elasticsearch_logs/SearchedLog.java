@@ -0,0 +1,633 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import hudson.model.Computer;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.BoundedCache;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * The log of a run or of a single node of a run read back from
+ * Elasticsearch.
+ * <p>
+ * The message events are searched page by page using <code>search_after</code>
+ * sorted by timestamp, sender ID and sequence number, i.e. events with the same
+ * timestamp are in the order in which they have been sent if they have been
+ * sent by the same sender, and grouped by sender in an arbitrary but fixed
+ * order otherwise. Senders are not shared between JVMs, so the order of
+ * events sent on different agents is only defined by their timestamps, which
+ * depend on the clocks of the agents. While a page is rendered, the next
+ * one is already requested in the background. Recently read pages are kept
+ * in memory, so that subsequent requests, e.g. of progressive console viewers,
+ * only need to search for events added since the last request. The retained
+ * pages are limited in size; for evicted pages only the position to search
+ * from is kept, and they are searched and rendered again when read. Instances
+ * are kept in a JVM-wide cache of limited size (see
+ * {@link #forRun(ElasticsearchRunConfig, String)}).
+ * </p>
+ * <p>
+ * As long as the run is not complete, only events older than a settle time
+ * are read. Events become visible in Elasticsearch with some delay and might
+ * be received out of order, so reading the latest events would risk missing
+ * some of them forever, as pages are never read again. For the same reason
+ * an evicted page can only be rendered again as long as no events have been
+ * added in its range afterwards.
+ * </p>
+ * <p>
+ * For the overall log an index in the format of the <code>log-index</code>
+ * file is built along with the content, so that step annotations can be
+ * inserted like for local log files.
+ * </p>
+ */
+final class SearchedLog {
+
+    private static final int PAGE_SIZE = Integer.getInteger(SearchedLog.class.getName() + ".pageSize", 1000);
+    private static final long SETTLE_MILLIS = Long.getLong(SearchedLog.class.getName() + ".settleMillis", 10 * 1000); // 10 s
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = Long.getLong(SearchedLog.class.getName() + ".minRefreshIntervalMillis", 1000); // 1 s
+    private static final int CACHE_SIZE = Integer.getInteger(SearchedLog.class.getName() + ".cacheSize", 20);
+    private static final long RETAINED_BYTES = Long.getLong(SearchedLog.class.getName() + ".retainedBytes", 4 * 1024 * 1024); // 4 MiB per log
+    private static final long CACHE_EXPIRE_AFTER_ACCESS_MILLIS = Long.getLong(SearchedLog.class.getName() + ".cacheExpireAfterAccessMillis", 10 * 60 * 1000); // 10 min
+
+    private static final BoundedCache<String, SearchedLog> cache = new BoundedCache<>(CACHE_SIZE, CACHE_EXPIRE_AFTER_ACCESS_MILLIS);
+
+    private static final String FLOW_NODE_ID = "flowNodeId";
+    private static final String MESSAGE_ID = "messageId";
+    private static final String MESSAGE_COUNT = "messageCount";
+    private static final String POSITION = "position";
+    private static final String NOTE = "note";
+    private static final String[] MESSAGE_EVENT_TYPES = {"buildMessage", "nodeMessage"};
+
+    private final String uid;
+    @CheckForNull
+    private final String nodeId;
+    private final Supplier<EventReader> readerFactory;
+    private final Executor executor;
+    private final int pageSize;
+    private final long settleMillis;
+    private final long retainedBytes;
+    private final LongSupplier clock;
+
+    // pages are never modified once added
+    private final List<Page> pages = new ArrayList<>();
+    private long[] pageStarts = new long[16];
+    private long length = 0;
+
+    // rendered content of recently read pages, the eldest entry is the least recently read one
+    private final LinkedHashMap<Page, byte[]> retained = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedLength = 0;
+
+    // content of the index in log-index format (overall log only)
+    private byte[] index = new byte[0];
+    private int indexLength = 0;
+    private String lastId;
+
+    // sort values of the last event read
+    @CheckForNull
+    private JSONArray searchAfter;
+
+    private final Renderer renderer = new Renderer(true);
+
+    private long lastRefresh = Long.MIN_VALUE;
+    private long completeSince = Long.MIN_VALUE;
+    // set once no further events are expected
+    private boolean complete;
+
+    /**
+     * @param uid
+     *     The unique ID of the run.
+     * @param nodeId
+     *     The ID of the node or <code>null</code> for the overall log.
+     * @param readerFactory
+     *     Creates the readers used to search the events.
+     * @param executor
+     *     Used to prefetch pages.
+     * @param pageSize
+     *     The number of events requested per page.
+     * @param settleMillis
+     *     Events more recent than this are not read until the run is
+     *     complete.
+     * @param retainedBytes
+     *     The size of the rendered pages kept in memory.
+     * @param clock
+     *     Provides the current time in milliseconds.
+     */
+    SearchedLog(
+        @Nonnull String uid,
+        @CheckForNull String nodeId,
+        @Nonnull Supplier<EventReader> readerFactory,
+        @Nonnull Executor executor,
+        int pageSize,
+        long settleMillis,
+        long retainedBytes,
+        @Nonnull LongSupplier clock
+    ) {
+        this.uid = uid;
+        this.nodeId = nodeId;
+        this.readerFactory = readerFactory;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.settleMillis = settleMillis;
+        this.retainedBytes = retainedBytes;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the cached log for the given run and node or creates a new one.
+     *
+     * @param nodeId
+     *     The ID of the node or <code>null</code> for the overall log.
+     */
+    @Nonnull
+    static SearchedLog forRun(@Nonnull ElasticsearchRunConfig config, @CheckForNull String nodeId) {
+        String key = config.getUniqueId() + (nodeId == null ? "" : " " + nodeId);
+        SearchedLog searchedLog = cache.get(key);
+        if (searchedLog == null) {
+            searchedLog = cache.putIfAbsent(key, new SearchedLog(
+                config.getUniqueId(),
+                nodeId,
+                config::createEventReader,
+                Computer.threadPoolForRemoting,
+                PAGE_SIZE,
+                SETTLE_MILLIS,
+                RETAINED_BYTES,
+                System::currentTimeMillis
+            ));
+        }
+        return searchedLog;
+    }
+
+    /**
+     * Reads the events added since the last refresh and returns the content
+     * read so far.
+     *
+     * @param complete
+     *     <code>true</code> if the run is complete, i.e. no further events
+     *     will be added.
+     */
+    @Nonnull
+    synchronized Content refresh(boolean complete) throws IOException {
+        long now = clock.getAsLong();
+        // concurrent viewers of a running build are served from memory
+        boolean due = lastRefresh == Long.MIN_VALUE || now - lastRefresh >= MIN_REFRESH_INTERVAL_MILLIS;
+        if (!this.complete && (complete || due)) {
+            lastRefresh = now;
+            Long before = complete ? null : now - settleMillis;
+            try (EventReader reader = openReader()) {
+                CompletableFuture<JSONObject> next = searchAsync(reader, searchAfter, before, pageSize);
+                while (next != null) {
+                    JSONArray hits = await(next).getJSONObject("hits").getJSONArray("hits");
+                    next = null;
+                    if (hits.size() >= pageSize) {
+                        // request the next page while this one is rendered
+                        JSONArray sort = hits.getJSONObject(hits.size() - 1).getJSONArray("sort");
+                        next = searchAsync(reader, sort, before, pageSize);
+                    }
+                    addPage(hits);
+                }
+            }
+            if (complete) {
+                Pending pendingAtStart = renderer.pending;
+                ByteArrayOutputStream page = new ByteArrayOutputStream();
+                renderer.writePending(page);
+                addPage(page, searchAfter, pendingAtStart, 0);
+                // events sent right before completion might not be visible yet
+                if (completeSince == Long.MIN_VALUE) {
+                    completeSince = now;
+                }
+                this.complete = now - completeSince >= settleMillis;
+            }
+        }
+        return new Content(this, pages.toArray(new Page[0]), Arrays.copyOf(pageStarts, pages.size()), length, index, indexLength);
+    }
+
+    /*
+     * Returns the rendered content of a page, searching and rendering it
+     * again if it has been evicted.
+     */
+    private synchronized byte[] getContent(Page page) throws IOException {
+        byte[] content = retained.get(page);
+        if (content == null) {
+            Renderer pageRenderer = new Renderer(false);
+            pageRenderer.pending = page.pendingAtStart;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (page.hits == 0) {
+                pageRenderer.writePending(out);
+            } else {
+                JSONArray hits;
+                try (EventReader reader = openReader()) {
+                    hits = await(searchAsync(reader, page.searchAfter, null, page.hits)).getJSONObject("hits").getJSONArray("hits");
+                }
+                for (int i = 0; i < hits.size(); i++) {
+                    JSONObject source = hits.getJSONObject(i).optJSONObject("_source");
+                    if (source != null) {
+                        pageRenderer.addEvent(source, out);
+                    }
+                }
+            }
+            if (out.size() != page.length) {
+                throw new IOException("The events of " + uid + " read at " + page.start + " have changed since they have been read first");
+            }
+            content = out.toByteArray();
+            retain(page, content);
+        }
+        return content;
+    }
+
+    private void retain(Page page, byte[] content) {
+        retained.put(page, content);
+        retainedLength += content.length;
+        Iterator<Map.Entry<Page, byte[]>> it = retained.entrySet().iterator();
+        // the page just read is retained in any case
+        while (retainedLength > retainedBytes && retained.size() > 1) {
+            retainedLength -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    private EventReader openReader() throws IOException {
+        EventReader reader = readerFactory.get();
+        if (reader == null) {
+            throw new IOException("The configured event writer does not support reading events");
+        }
+        return reader;
+    }
+
+    private CompletableFuture<JSONObject> searchAsync(EventReader reader, @CheckForNull JSONArray searchAfter, @CheckForNull Long before, int size) {
+        JSONObject request = createRequest(searchAfter, before, size);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return reader.search(request);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private static JSONObject await(CompletableFuture<JSONObject> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching events");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private JSONObject createRequest(@CheckForNull JSONArray searchAfter, @CheckForNull Long before, int size) {
+        JSONArray filter = new JSONArray();
+        filter.add(matchPhrase(EventFieldNames.UID, uid));
+        JSONArray eventTypes = new JSONArray();
+        for (String eventType : MESSAGE_EVENT_TYPES) {
+            eventTypes.add(matchPhrase(ElasticsearchGraphListener.EVENT_TYPE, eventType));
+        }
+        JSONObject eventTypeQuery = new JSONObject();
+        eventTypeQuery.put("should", eventTypes);
+        eventTypeQuery.put("minimum_should_match", 1);
+        JSONObject eventTypeBool = new JSONObject();
+        eventTypeBool.put("bool", eventTypeQuery);
+        filter.add(eventTypeBool);
+        if (nodeId != null) {
+            filter.add(matchPhrase(FLOW_NODE_ID, nodeId));
+        }
+        if (before != null) {
+            JSONObject lt = new JSONObject();
+            lt.put("lt", before);
+            JSONObject range = new JSONObject();
+            range.put(EventFieldNames.TIMESTAMP_MILLIS, lt);
+            JSONObject rangeQuery = new JSONObject();
+            rangeQuery.put("range", range);
+            filter.add(rangeQuery);
+        }
+        JSONObject bool = new JSONObject();
+        bool.put("filter", filter);
+        JSONObject query = new JSONObject();
+        query.put("bool", bool);
+
+        JSONArray sort = new JSONArray();
+        sort.add(sortField(EventFieldNames.TIMESTAMP_MILLIS));
+        sort.add(sortField(EventFieldNames.SENDER_ID));
+        sort.add(sortField(EventFieldNames.SEQUENCE));
+
+        JSONArray source = new JSONArray();
+        source.add(ConsoleNotes.MESSAGE_KEY);
+        source.add(ConsoleNotes.ANNOTATIONS_KEY);
+        source.add(MESSAGE_ID);
+        source.add(MESSAGE_COUNT);
+        source.add(FLOW_NODE_ID);
+
+        JSONObject request = new JSONObject();
+        request.put("size", size);
+        request.put("query", query);
+        request.put("sort", sort);
+        request.put("_source", source);
+        if (searchAfter != null) {
+            request.put("search_after", searchAfter);
+        }
+        return request;
+    }
+
+    private static JSONObject matchPhrase(String field, String value) {
+        JSONObject fieldQuery = new JSONObject();
+        fieldQuery.put(field, value);
+        JSONObject query = new JSONObject();
+        query.put("match_phrase", fieldQuery);
+        return query;
+    }
+
+    private static JSONObject sortField(String field) {
+        JSONObject order = new JSONObject();
+        order.put("order", "asc");
+        // events written by older versions do not have all fields
+        order.put("unmapped_type", "long");
+        JSONObject sortField = new JSONObject();
+        sortField.put(field, order);
+        return sortField;
+    }
+
+    private void addPage(JSONArray hits) throws IOException {
+        JSONArray pageSearchAfter = this.searchAfter;
+        Pending pendingAtStart = renderer.pending;
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        for (int i = 0; i < hits.size(); i++) {
+            JSONObject hit = hits.getJSONObject(i);
+            JSONObject source = hit.optJSONObject("_source");
+            if (source != null) {
+                renderer.addEvent(source, page);
+            }
+            this.searchAfter = hit.getJSONArray("sort");
+        }
+        addPage(page, pageSearchAfter, pendingAtStart, hits.size());
+    }
+
+    private void addPage(ByteArrayOutputStream content, @CheckForNull JSONArray pageSearchAfter, @CheckForNull Pending pendingAtStart, int hits) {
+        if (content.size() == 0) {
+            return;
+        }
+        if (pages.size() == pageStarts.length) {
+            pageStarts = Arrays.copyOf(pageStarts, pageStarts.length * 2);
+        }
+        Page page = new Page(length, content.size(), pageSearchAfter, pendingAtStart, hits);
+        pageStarts[pages.size()] = length;
+        pages.add(page);
+        length += content.size();
+        retain(page, content.toByteArray());
+    }
+
+    /**
+     * A range of the content rendered from the events of one search.
+     */
+    private static final class Page {
+
+        final long start;
+        final int length;
+        // to render the page again: the position to search from, the split
+        // message pending before the page and the number of events to read,
+        // 0 if only the pending message is written
+        @CheckForNull
+        final JSONArray searchAfter;
+        @CheckForNull
+        final Pending pendingAtStart;
+        final int hits;
+
+        Page(long start, int length, @CheckForNull JSONArray searchAfter, @CheckForNull Pending pendingAtStart, int hits) {
+            this.start = start;
+            this.length = length;
+            this.searchAfter = searchAfter;
+            this.pendingAtStart = pendingAtStart;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * A split message waiting for further chunks, never modified.
+     */
+    private static final class Pending {
+
+        final JSONObject source;
+        final String message;
+        final List<Object> annotations;
+
+        Pending(JSONObject source, String message, List<Object> annotations) {
+            this.source = source;
+            this.message = message;
+            this.annotations = annotations;
+        }
+    }
+
+    /**
+     * Renders events in the format of the log file, joining split messages.
+     */
+    private final class Renderer {
+
+        // the index is only built when pages are read first
+        private final boolean indexing;
+
+        @CheckForNull
+        private Pending pending;
+
+        Renderer(boolean indexing) {
+            this.indexing = indexing;
+        }
+
+        void addEvent(JSONObject source, ByteArrayOutputStream page) throws IOException {
+            String message = source.optString(ConsoleNotes.MESSAGE_KEY, null);
+            if (message == null) {
+                return;
+            }
+            String messageId = source.optString(MESSAGE_ID, null);
+            if (pending != null) {
+                if (Objects.equals(messageId, pending.source.optString(MESSAGE_ID, null)) && source.optInt(MESSAGE_COUNT, 0) > 0) {
+                    // continuation of a split message
+                    pending = new Pending(pending.source, pending.message + message, joinAnnotations(source.optJSONArray(ConsoleNotes.ANNOTATIONS_KEY)));
+                    return;
+                }
+                writePending(page);
+            }
+            if (messageId != null) {
+                // further chunks might follow
+                pending = new Pending(source, message, getAnnotations(source));
+                return;
+            }
+            writeEvent(message, getAnnotations(source), source.optString(FLOW_NODE_ID, null), page);
+        }
+
+        /*
+         * Joins the annotations of a continuation with those of the pending
+         * event. Chunks of lines exceeding the maximum line length have
+         * annotations relative to their own message.
+         */
+        private List<Object> joinAnnotations(@CheckForNull JSONArray annotations) {
+            if (annotations == null || annotations.isEmpty()) {
+                return pending.annotations;
+            }
+            List<Object> joined = new ArrayList<>(pending.annotations);
+            for (Object o : annotations) {
+                JSONObject annotation = (JSONObject) o;
+                JSONObject shifted = new JSONObject();
+                shifted.put(POSITION, ((Number) annotation.get(POSITION)).intValue() + pending.message.length());
+                shifted.put(NOTE, annotation.get(NOTE));
+                joined.add(shifted);
+            }
+            return joined;
+        }
+
+        void writePending(ByteArrayOutputStream page) throws IOException {
+            if (pending != null) {
+                writeEvent(pending.message, pending.annotations, pending.source.optString(FLOW_NODE_ID, null), page);
+                pending = null;
+            }
+        }
+
+        private void writeEvent(String message, List<Object> annotations, @CheckForNull String id, ByteArrayOutputStream page) throws IOException {
+            if (nodeId == null && indexing && !Objects.equals(id, lastId)) {
+                long pos = length + page.size();
+                addIndexLine(id == null ? pos + "\n" : pos + " " + id + "\n");
+                lastId = id;
+            }
+            Map<String, Object> data = new HashMap<>();
+            data.put(ConsoleNotes.MESSAGE_KEY, message);
+            if (!annotations.isEmpty()) {
+                // ConsoleNotes only accepts an ArrayList
+                data.put(ConsoleNotes.ANNOTATIONS_KEY, new ArrayList<>(annotations));
+            }
+            StringWriter w = new StringWriter();
+            ConsoleNotes.write(w, data);
+            page.write(w.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<Object> getAnnotations(JSONObject source) {
+        Object annotations = source.opt(ConsoleNotes.ANNOTATIONS_KEY);
+        if (annotations instanceof List) {
+            return new ArrayList<>((List<?>) annotations);
+        }
+        return Collections.emptyList();
+    }
+
+    private void addIndexLine(String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        if (indexLength + b.length > index.length) {
+            // readers of previous content keep the old array
+            index = Arrays.copyOf(index, Math.max(index.length * 2, indexLength + b.length));
+        }
+        System.arraycopy(b, 0, index, indexLength, b.length);
+        indexLength += b.length;
+    }
+
+    /**
+     * An immutable snapshot of the content read so far.
+     */
+    static final class Content {
+
+        private final SearchedLog log;
+        private final Page[] pages;
+        private final long[] pageStarts;
+        private final long length;
+        private final byte[] index;
+        private final int indexLength;
+
+        Content(SearchedLog log, Page[] pages, long[] pageStarts, long length, byte[] index, int indexLength) {
+            this.log = log;
+            this.pages = pages;
+            this.pageStarts = pageStarts;
+            this.length = length;
+            this.index = index;
+            this.indexLength = indexLength;
+        }
+
+        long length() {
+            return this.length;
+        }
+
+        /**
+         * Opens a reader for the content.
+         */
+        @Nonnull
+        LogReader openReader() {
+            return new LogReader() {
+                @Override
+                public int read(long position, byte[] b, int off, int len) throws IOException {
+                    if (position >= length) {
+                        return -1;
+                    }
+                    int i = Arrays.binarySearch(pageStarts, position);
+                    if (i < 0) {
+                        i = -i - 2;
+                    }
+                    byte[] page = log.getContent(pages[i]);
+                    int pageOffset = (int) (position - pageStarts[i]);
+                    int n = Math.min(len, page.length - pageOffset);
+                    System.arraycopy(page, pageOffset, b, off, n);
+                    return n;
+                }
+
+                @Override
+                public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                    long transferred = 0;
+                    while (transferred < count && position + transferred < length) {
+                        long pos = position + transferred;
+                        int i = Arrays.binarySearch(pageStarts, pos);
+                        if (i < 0) {
+                            i = -i - 2;
+                        }
+                        byte[] page = log.getContent(pages[i]);
+                        int pageOffset = (int) (pos - pageStarts[i]);
+                        int n = (int) Math.min(count - transferred, page.length - pageOffset);
+                        ByteBuffer bb = ByteBuffer.wrap(page, pageOffset, n);
+                        while (bb.hasRemaining()) {
+                            target.write(bb);
+                        }
+                        transferred += n;
+                    }
+                    return transferred;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        /**
+         * Opens the index of the content in <code>log-index</code> format.
+         */
+        @Nonnull
+        InputStream openIndex() {
+            return new ByteArrayInputStream(this.index, 0, this.indexLength);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import javax.annotation.Nonnull;
+
+import org.jenkinsci.plugins.workflow.log.LogStorage;
+
+/**
+ * Inserts startStep/endStep annotations into the overall log.
+ * <p>
+ * To insert startStep/endStep annotations into the overall log, we need to
+ * simultaneously read index-log. The raw log text (we need not think about
+ * ConsoleNote here) is written to this stream, starting at the given start
+ * position. We read index-log in order, looking for transitions from one step
+ * to the next (or to or from non-step overall output). Whenever we are about
+ * to write a byte which is at a boundary, or if there is a boundary at EOF,
+ * the HTML annotations are injected into the output; the read of index-log is
+ * advanced lazily (it is not necessary to have the whole mapping in memory).
+ * </p>
+ * <p>
+ * All bytes up to the next transition are passed to the underlying stream
+ * with a single call, i.e. there is no per-byte overhead.
+ * </p>
+ * <p>
+ * Logic taken from FileLogStorage of workflow-api plugin.
+ * </p>
+ */
+final class StepAnnotatingOutputStream extends FilterOutputStream {
+
+    private final Writer w;
+    private final TransitionReader index;
+
+    private long lastTransition = -1;
+    private boolean eof;
+    private String lastId;
+    private long pos;
+    private boolean hadLastId;
+
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param out
+     *     The stream to write the log text to.
+     * @param w
+     *     The writer to write the annotations to. Must be the writer the
+     *     given output stream writes to.
+     * @param index
+     *     The reader of the index. Transitions before the last one preceding
+     *     the start position may have been skipped already.
+     * @param start
+     *     The position in the log file of the first byte written to this
+     *     stream.
+     */
+    StepAnnotatingOutputStream(@Nonnull OutputStream out, @Nonnull Writer w, @Nonnull TransitionReader index, long start) {
+        super(out);
+        this.w = w;
+        this.index = index;
+        this.pos = start;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (lastTransition < pos && !eof) {
+                if (!index.next()) {
+                    eof = true;
+                    break;
+                }
+                lastTransition = index.getPosition();
+                lastId = index.getId();
+            }
+            int n;
+            if (pos == lastTransition) {
+                if (hadLastId) {
+                    w.write(LogStorage.endStep());
+                }
+                hadLastId = lastId != null;
+                if (lastId != null) {
+                    w.write(LogStorage.startStep(lastId));
+                }
+                // the next transition is not known yet
+                n = eof ? len : 1;
+            } else if (lastTransition > pos) {
+                n = (int) Math.min(len, lastTransition - pos);
+            } else {
+                // no further transition
+                n = len;
+            }
+            out.write(b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (lastId != null) {
+            w.write(LogStorage.endStep());
+        }
+        super.flush();
+    }
+}
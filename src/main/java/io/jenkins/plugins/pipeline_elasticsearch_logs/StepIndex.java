@@ -0,0 +1,190 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.utils.BoundedCache;
+
+/**
+ * An in-memory index of the byte ranges of the log file belonging to each
+ * node, built from the <code>log-index</code> file or its binary variant
+ * (see {@link BinaryIndex}).
+ * <p>
+ * The index is built lazily on first use and afterwards only the part of the
+ * index file appended since then is parsed. The log storage writing the index
+ * file additionally appends new transitions directly via
+ * {@link #append(long, int, long, String)}, so that the index file does not
+ * need to be read again at all while the build is running.
+ * </p>
+ * <p>
+ * Instances are kept in a JVM-wide cache of limited size (see
+ * {@link #forIndexFile(File)}), so that subsequent requests for the step logs
+ * of the same build do not need to parse the index file again.
+ * </p>
+ */
+final class StepIndex {
+
+    private static final int CACHE_SIZE = Integer.getInteger(StepIndex.class.getName() + ".cacheSize", 50);
+    private static final long CACHE_EXPIRE_AFTER_ACCESS_MILLIS = Long.getLong(StepIndex.class.getName() + ".cacheExpireAfterAccessMillis", 10 * 60 * 1000); // 10 min
+
+    private static final BoundedCache<File, StepIndex> cache = new BoundedCache<>(CACHE_SIZE, CACHE_EXPIRE_AFTER_ACCESS_MILLIS);
+
+    private final File index;
+    private final BinaryIndex binaryIndex;
+
+    // pairs of start and end positions of all finished ranges of a node
+    private final Map<String, LongList> rangesById = new HashMap<>();
+
+    // bytes of the index file processed so far
+    private long indexLength = 0;
+
+    // the node and start position of the current (not yet finished) range
+    private String currentId;
+    private long currentStart = -1;
+
+    StepIndex(@Nonnull File index) {
+        this.index = index;
+        this.binaryIndex = new BinaryIndex(index);
+    }
+
+    /**
+     * Returns the cached step index for the given index file or creates a
+     * new one.
+     */
+    @Nonnull
+    static StepIndex forIndexFile(@Nonnull File index) {
+        StepIndex stepIndex = cache.get(index);
+        if (stepIndex == null) {
+            stepIndex = cache.putIfAbsent(index, new StepIndex(index));
+        }
+        return stepIndex;
+    }
+
+    /**
+     * Adds a transition which has just been written to the index file.
+     * <p>
+     * Only used with the text index. The binary index is written in batches,
+     * but reading it is cheap anyway.
+     * </p>
+     * <p>
+     * The transition is ignored if the index file has not been processed
+     * exactly up to the given offset. In this case it has either been read
+     * already or will be read from the index file with the next lookup.
+     * </p>
+     *
+     * @param indexOffset
+     *     The offset of the transition's line in the index file.
+     * @param lineLength
+     *     The length of the transition's line in bytes including line
+     *     separator.
+     * @param position
+     *     The position of the transition in the log file.
+     * @param id
+     *     The node ID of the transition.
+     */
+    synchronized void append(long indexOffset, int lineLength, long position, @CheckForNull String id) {
+        if (indexOffset == this.indexLength) {
+            add(position, id);
+            this.indexLength += lineLength;
+        }
+    }
+
+    /**
+     * Returns the byte ranges of the log file belonging to the given node.
+     *
+     * @param id
+     *     The node ID.
+     * @param logLength
+     *     The current length of the log file. A range of the node which has
+     *     not been finished yet ends here.
+     * @return pairs of start (inclusive) and end (exclusive) positions in
+     *     ascending order.
+     */
+    @Nonnull
+    synchronized long[] getRanges(@Nonnull String id, long logLength) throws IOException {
+        update();
+        LongList ranges = rangesById.get(id);
+        long[] result = ranges == null ? new long[0] : ranges.toArray();
+        if (id.equals(currentId) && logLength > currentStart) {
+            result = Arrays.copyOf(result, result.length + 2);
+            result[result.length - 2] = currentStart;
+            result[result.length - 1] = logLength;
+        }
+        return result;
+    }
+
+    private void update() throws IOException {
+        boolean isBinary = binaryIndex.exists();
+        long length = isBinary ? binaryIndex.length() : index.length();
+        if (length < this.indexLength) {
+            // index file has been replaced
+            reset();
+        }
+        if (length == this.indexLength) {
+            return;
+        }
+        try (TransitionReader reader = isBinary ? binaryIndex.openReader(this.indexLength) : openTextReader()) {
+            long offset = this.indexLength;
+            while (reader.next()) {
+                add(reader.getPosition(), reader.getId());
+                this.indexLength = offset + reader.getConsumedBytes();
+            }
+        }
+    }
+
+    private TransitionReader openTextReader() throws IOException {
+        FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ);
+        try {
+            return new IndexReader(Channels.newInputStream(channel.position(this.indexLength)), index.toString());
+        }
+        catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void reset() {
+        this.rangesById.clear();
+        this.indexLength = 0;
+        this.currentId = null;
+        this.currentStart = -1;
+    }
+
+    private void add(long position, @CheckForNull String id) {
+        if (position < currentStart) {
+            // some sort of mismatch, positions never decrease
+            return;
+        }
+        if (currentId != null && position > currentStart) {
+            rangesById.computeIfAbsent(currentId, k -> new LongList()).add(currentStart, position);
+        }
+        currentId = id;
+        currentStart = position;
+    }
+
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size = 0;
+
+        void add(long start, long end) {
+            if (size + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = start;
+            values[size++] = end;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Reads the transitions of a step index sequentially.
+ * <p>
+ * A transition is the position in the log file where the output of one
+ * node ends and the output of the next node (or output not belonging to any
+ * node) starts.
+ * </p>
+ */
+interface TransitionReader extends Closeable {
+
+    /**
+     * Advances to the next transition.
+     *
+     * @return <code>false</code> if there is no further complete transition.
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the position in the log file of the current transition.
+     */
+    long getPosition();
+
+    /**
+     * @return the ID of the node the output following the current transition
+     *     belongs to, or <code>null</code> if it does not belong to any node.
+     */
+    @CheckForNull
+    String getId();
+
+    /**
+     * @return the number of bytes of the index read up to the end of the
+     *     current transition.
+     */
+    long getConsumedBytes();
+}
@@ -0,0 +1,27 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.read;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Reads events back from the destination they have been written to.
+ */
+public interface EventReader extends AutoCloseable {
+
+    /**
+     * Executes a search request.
+     *
+     * @param request
+     *     The request body as defined by the Elasticsearch Search API.
+     * @return The response body as defined by the Elasticsearch Search API.
+     * @throws IOException
+     */
+    @Nonnull
+    public JSONObject search(@Nonnull JSONObject request) throws IOException;
+
+    @Override
+    public void close() throws IOException;
+}
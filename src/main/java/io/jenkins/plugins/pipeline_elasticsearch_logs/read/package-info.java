@@ -0,0 +1,7 @@
+/**
+ * Reading of log events back from Elasticsearch.
+ *
+ * Used to display the console output of builds which do not have a local log
+ * file because their log events are only stored in Elasticsearch.
+ */
+package io.jenkins.plugins.pipeline_elasticsearch_logs.read;
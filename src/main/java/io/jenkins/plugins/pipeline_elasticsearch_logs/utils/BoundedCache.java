@@ -0,0 +1,128 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A thread-safe cache with a maximum number of entries and an expiry of
+ * entries which have not been accessed for some time.
+ * <p>
+ * The cache cleans itself: expired entries are removed whenever entries are
+ * added or looked up, and the least recently accessed entry is evicted if the
+ * maximum size is exceeded. No background thread is required.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class BoundedCache<K, V> {
+
+    private final int maxSize;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier nanoClock;
+
+    // access-ordered, i.e. the eldest entry is the least recently accessed one
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry<V> {
+        final V value;
+        long lastAccessNanos;
+
+        Entry(V value, long lastAccessNanos) {
+            this.value = value;
+            this.lastAccessNanos = lastAccessNanos;
+        }
+    }
+
+    /**
+     * @param maxSize
+     *     The maximum number of entries.
+     * @param expireAfterAccessMillis
+     *     The time after which entries expire if not accessed.
+     */
+    public BoundedCache(int maxSize, long expireAfterAccessMillis) {
+        this(maxSize, expireAfterAccessMillis, System::nanoTime);
+    }
+
+    BoundedCache(int maxSize, long expireAfterAccessMillis, @Nonnull LongSupplier nanoClock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.expireAfterAccessNanos = expireAfterAccessMillis * 1_000_000L;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns the value cached for the given key and marks the entry as
+     * accessed.
+     *
+     * @return the cached value or <code>null</code> if there is none.
+     */
+    @CheckForNull
+    public synchronized V get(@Nonnull K key) {
+        long now = nanoClock.getAsLong();
+        removeExpired(now);
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccessNanos = now;
+        return entry.value;
+    }
+
+    /**
+     * Adds the given value if there is no value cached for the given key yet.
+     *
+     * @return the value cached for the given key after this call, i.e. either
+     *     the previously cached value or the given one.
+     */
+    @Nonnull
+    public synchronized V putIfAbsent(@Nonnull K key, @Nonnull V value) {
+        long now = nanoClock.getAsLong();
+        removeExpired(now);
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            entry.lastAccessNanos = now;
+            return entry.value;
+        }
+        entries.put(key, new Entry<>(value, now));
+        if (entries.size() > maxSize) {
+            Iterator<K> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return value;
+    }
+
+    /**
+     * Removes the entry for the given key, if any.
+     */
+    public synchronized void remove(@Nonnull K key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        removeExpired(nanoClock.getAsLong());
+        return entries.size();
+    }
+
+    private void removeExpired(long now) {
+        // entries are ordered by access, so we can stop at the first
+        // entry not expired
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<V> entry = it.next().getValue();
+            if (now - entry.lastAccessNanos < expireAfterAccessNanos) {
+                break;
+            }
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+@Restricted(NoExternalUse.class)
+public class FileUtils {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private FileUtils() {}
+
+    /**
+     * Returns the last line of the given UTF-8 encoded text file.
+     * <p>
+     * The file is scanned backwards from its end in blocks until the start
+     * of the last line is found, i.e. the time required does not depend on
+     * the size of the file but on the length of the last line only.
+     * </p>
+     * <p>
+     * Like {@link java.io.BufferedReader#readLine()}, a final line without a
+     * line separator is returned as is, and a trailing <code>\n</code> does
+     * not start a new (empty) line.
+     * </p>
+     *
+     * @param file
+     *     The file to read.
+     * @return the last line without line separator, or <code>null</code> if
+     *     the file is empty.
+     * @throws IOException
+     *     if the file cannot be read.
+     */
+    @CheckForNull
+    public static String readLastLine(@Nonnull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = channel.size();
+            if (end == 0) {
+                return null;
+            }
+            if (readByte(channel, end - 1) == '\n') {
+                end--;
+            }
+
+            long start = findLineStart(channel, end);
+
+            ByteBuffer line = ByteBuffer.allocate(Math.toIntExact(end - start));
+            readFully(channel, line, start);
+            int length = line.limit();
+            if (length > 0 && line.get(length - 1) == '\r') {
+                length--;
+            }
+            return new String(line.array(), 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /*
+     * Returns the position following the last '\n' before the given end
+     * position, or zero if there is none.
+     */
+    private static long findLineStart(FileChannel channel, long end) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        long blockEnd = end;
+        while (blockEnd > 0) {
+            long blockStart = Math.max(0, blockEnd - BLOCK_SIZE);
+            block.clear();
+            block.limit((int) (blockEnd - blockStart));
+            readFully(channel, block, blockStart);
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return 0;
+    }
+
+    private static byte readByte(FileChannel channel, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1);
+        readFully(channel, b, position);
+        return b.get(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file at position " + pos);
+            }
+            pos += n;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,78 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.utils;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Runs tasks one after another in the order of their submission, using the
+ * threads of another (shared) executor.
+ * <p>
+ * No thread is occupied while there are no tasks. A task failing with a
+ * runtime exception is logged and does not prevent later tasks from running.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class SerialExecutor implements Executor {
+
+    private static final Logger LOGGER = Logger.getLogger(SerialExecutor.class.getName());
+
+    private final Executor executor;
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    // whether a worker draining the queue has been submitted to the executor
+    private boolean running;
+
+    public SerialExecutor(@Nonnull Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable task) {
+        synchronized (this) {
+            tasks.add(task);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        try {
+            executor.execute(this::runTasks);
+        }
+        catch (RejectedExecutionException ex) {
+            synchronized (this) {
+                tasks.remove(task);
+                running = false;
+            }
+            throw ex;
+        }
+    }
+
+    private void runTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            }
+            catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Task " + task + " failed", ex);
+            }
+        }
+    }
+}
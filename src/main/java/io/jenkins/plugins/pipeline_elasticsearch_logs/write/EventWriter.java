@@ -15,4 +15,17 @@ public interface EventWriter extends AutoCloseable {
      * @throws IOException
      */
     public void push(@Nonnull Map<String, Object> data) throws IOException;
+
+    /**
+     * Makes sure that all events pushed so far are sent, i.e. are no
+     * longer kept in any buffer of this writer.
+     * <p>
+     * The default implementation does nothing, which is appropriate for
+     * writers that send each event synchronously.
+     * </p>
+     *
+     * @throws IOException
+     */
+    public default void flush() throws IOException {
+    }
 }
@@ -1,9 +1,12 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs.write;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import org.jenkinsci.remoting.SerializableOnlyOverRemoting;
 
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
+
 /**
  * An event writer config created specifically for a certain Run.
  *
@@ -19,4 +22,20 @@ public interface EventWriterRunConfig extends SerializableOnlyOverRemoting {
      */
     @Nonnull
     public abstract EventWriter createEventWriter();
+
+    /**
+     * Creates a new reader for the events written by the writers created
+     * by this configuration.
+     * <p>
+     * The default implementation returns <code>null</code>, which is
+     * appropriate for destinations which cannot be searched directly.
+     * </p>
+     *
+     * @return The new reader or <code>null</code> if reading is not
+     *     supported. Must be closed by the caller.
+     */
+    @CheckForNull
+    public default EventReader createEventReader() {
+        return null;
+    }
 }
@@ -0,0 +1,174 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.fluentd;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Lets emitting threads wait until Fluency's flusher has freed buffer space.
+ * <p>
+ * Fluency does not notify about flushed buffer chunks. Therefore, as long as
+ * at least one thread is waiting, a single watcher task samples the size of
+ * the buffered data and signals all waiting threads once it decreased. If
+ * nobody is waiting, the watcher task terminates.
+ * </p>
+ * <p>
+ * Waits are bounded so that errors other than a full buffer get retried,
+ * too. The data is sampled several times per wait, so that waiting threads
+ * get woken up by the signal rather than by their timeout.
+ * </p>
+ * <p>
+ * The total time threads have been blocked in {@link #awaitSpace(long)} is
+ * recorded and can be retrieved via {@link #getBlockedNanos()}.
+ * </p>
+ */
+final class BufferSpaceMonitor {
+
+    // upper bound of a single wait for free buffer space
+    static final long MAX_AWAIT_SPACE_MILLIS = 100;
+
+    // the number of samples taken during the longest wait
+    static final int SAMPLES_PER_AWAIT = 4;
+
+    private final LongSupplier bufferedDataSize;
+    private final Executor executor;
+    private final long sampleIntervalNanos;
+    private final long maxAwaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition spaceFreed = lock.newCondition();
+
+    // guarded by lock
+    private int waiterCount = 0;
+    // guarded by lock, incremented each time buffer space has been freed
+    private long generation = 0;
+    // guarded by lock
+    private boolean isWatcherRunning = false;
+
+    private final LongAdder blockedNanos = new LongAdder();
+
+    /**
+     * @param bufferedDataSize
+     *     Supplies the current size of the buffered data in bytes.
+     * @param executor
+     *     The executor to run the watcher task with.
+     * @param sampleIntervalNanos
+     *     The interval to sample the size of the buffered data with, usually
+     *     the flush attempt interval.
+     */
+    BufferSpaceMonitor(@Nonnull LongSupplier bufferedDataSize, @Nonnull Executor executor, long sampleIntervalNanos) {
+        this.bufferedDataSize = bufferedDataSize;
+        this.executor = executor;
+        this.sampleIntervalNanos = sampleIntervalNanos;
+        this.maxAwaitNanos = sampleIntervalNanos * SAMPLES_PER_AWAIT;
+    }
+
+    /**
+     * Creates a monitor for a buffer flushed at the given interval. A single
+     * wait lasts at most the flush attempt interval, but not longer than
+     * {@link #MAX_AWAIT_SPACE_MILLIS}.
+     *
+     * @param bufferedDataSize
+     *     Supplies the current size of the buffered data in bytes.
+     * @param executor
+     *     The executor to run the watcher task with.
+     * @param flushAttemptIntervalMillis
+     *     Fluency's flush attempt interval.
+     */
+    static BufferSpaceMonitor forFlushAttemptInterval(@Nonnull LongSupplier bufferedDataSize, @Nonnull Executor executor,
+            int flushAttemptIntervalMillis) {
+        long maxAwaitNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1, Math.min(flushAttemptIntervalMillis, MAX_AWAIT_SPACE_MILLIS)));
+        return new BufferSpaceMonitor(bufferedDataSize, executor, Math.max(1, maxAwaitNanos / SAMPLES_PER_AWAIT));
+    }
+
+    /**
+     * @return the maximum time in nanoseconds a single call of
+     *     {@link #awaitSpace(long)} should wait, which covers
+     *     {@link #SAMPLES_PER_AWAIT} samples.
+     */
+    long getMaxAwaitNanos() {
+        return this.maxAwaitNanos;
+    }
+
+    /**
+     * Blocks until buffer space has been freed or the given timeout elapsed.
+     *
+     * @param timeoutNanos
+     *     The maximum time to wait in nanoseconds.
+     * @return <code>true</code> if buffer space has been freed,
+     *     <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException
+     *     if the current thread has been interrupted while waiting.
+     */
+    boolean awaitSpace(long timeoutNanos) throws InterruptedException {
+        final long startNanos = System.nanoTime();
+        lock.lock();
+        try {
+            final long awaitedGeneration = this.generation;
+            this.waiterCount++;
+            try {
+                startWatcherIfRequired();
+                long remainingNanos = timeoutNanos;
+                while (awaitedGeneration == this.generation && remainingNanos > 0) {
+                    remainingNanos = spaceFreed.awaitNanos(remainingNanos);
+                }
+                return awaitedGeneration != this.generation;
+            }
+            finally {
+                this.waiterCount--;
+            }
+        }
+        finally {
+            lock.unlock();
+            blockedNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * @return the accumulated time in nanoseconds threads have been blocked in
+     *     {@link #awaitSpace(long)}.
+     */
+    long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    private void startWatcherIfRequired() {
+        assert lock.isHeldByCurrentThread();
+        if (!this.isWatcherRunning) {
+            executor.execute(this::watch);
+            // set afterwards in case the executor rejects the task
+            this.isWatcherRunning = true;
+        }
+    }
+
+    private void watch() {
+        long lastSize = bufferedDataSize.getAsLong();
+        while (true) {
+            LockSupport.parkNanos(sampleIntervalNanos);
+            long currentSize = bufferedDataSize.getAsLong();
+
+            lock.lock();
+            try {
+                if (currentSize < lastSize) {
+                    this.generation++;
+                    spaceFreed.signalAll();
+                }
+                if (this.waiterCount == 0) {
+                    this.isWatcherRunning = false;
+                    return;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            lastSize = currentSize;
+        }
+    }
+}
@@ -12,8 +12,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +23,7 @@ import org.komamitsu.fluency.RetryableException;
 import org.komamitsu.fluency.fluentd.FluencyBuilderForFluentd;
 
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.CloseGuard;
 
 /**
  * An {@link EventWriter} that sends events via Fluentd Forward Protocol.
@@ -38,12 +37,13 @@ public class FluentdEventWriter implements EventWriter {
 
     private ExecutorService executor = Executors.newCachedThreadPool();
 
-    FluentdEventWriterConfig config;
+    private transient BufferSpaceMonitor bufferSpaceMonitor;
 
-    // mutex of push() and close(), with concurrent calls to push()
-    ReadWriteLock lock = new ReentrantReadWriteLock();
+    FluentdEventWriterConfig config;
 
-    private boolean isClosed;
+    // guards push() and flush() against concurrent close(), with concurrent
+    // calls to push() and flush()
+    private final CloseGuard closeGuard = new CloseGuard();
 
     FluentdEventWriter(@Nonnull FluentdEventWriterConfig config) {
         this.config = config;
@@ -72,6 +72,9 @@ public class FluentdEventWriter implements EventWriter {
         errorHandler = new FluentdErrorHandler();
         builder.setErrorHandler(errorHandler);
         fluentd = builder.build(config.getHost(), config.getPort());
+
+        bufferSpaceMonitor = BufferSpaceMonitor.forFlushAttemptInterval(fluentd::getBufferedDataSize, executor,
+            config.getFlushAttemptIntervalMillis());
         LOGGER.finer(format("Created new %s, host=%s, port=%s, hashCode=%s",
                 fluentd, config.getHost(), config.getPort(), fluentd.hashCode()));
     }
@@ -84,24 +87,50 @@ public class FluentdEventWriter implements EventWriter {
      */
     @Override
     public void push(Map<String, Object> data) throws IOException {
+        int guardToken = this.closeGuard.enter();
         try {
-            this.lock.readLock().lock();
-            failIfClosed();
             emitData(config.getTag(), data);
         }
         finally {
-            this.lock.readLock().unlock();
+            this.closeGuard.exit(guardToken);
         }
     }
 
     private void emitData(String tag, Map<String, Object> data) throws IOException {
         LOGGER.log(Level.FINEST, "Emitting log event: {0}", new Object[] { data });
 
-        boolean isThreadInterrupted = false;
+        // run Fluency.emit() in another thread to protect it from
+        // thread interrupts by Jenkins.
+        runAndWait(new FluencyEmitTask(tag, data));
+    }
+
+    /**
+     * Flushes Fluency's buffers and waits until all buffered events have
+     * been sent.
+     * <p>
+     * As the Fluency instance may be shared by multiple runs, this also
+     * sends the events of other runs.
+     * </p>
+     *
+     * @throws IOException if not all events could be sent in time
+     */
+    @Override
+    public void flush() throws IOException {
+        int guardToken = this.closeGuard.enter();
         try {
-            // run Fluency.emit() in another thread to protect it from
+            // run Fluency.flush() in another thread to protect it from
             // thread interrupts by Jenkins.
-            Future<Void> future = executor.submit(new FluencyEmitTask(tag, data));
+            runAndWait(new FluencyFlushTask());
+        }
+        finally {
+            this.closeGuard.exit(guardToken);
+        }
+    }
+
+    private void runAndWait(Callable<Void> task) throws IOException {
+        boolean isThreadInterrupted = false;
+        try {
+            Future<Void> future = executor.submit(task);
             while (true) {
                 try {
                     future.get(); // block until task is finished
@@ -109,7 +138,7 @@ public class FluentdEventWriter implements EventWriter {
                 }
                 catch (InterruptedException ex) {
                     // remember that the thread has been interrupted,
-                    // but still wait for completion of the emit task
+                    // but still wait for completion of the task
                     isThreadInterrupted = true;
                 }
                 catch (ExecutionException ex) {
@@ -150,46 +179,56 @@ public class FluentdEventWriter implements EventWriter {
         public Void call() throws IOException {
             final int timeoutMillis = config.getEmitTimeoutMillis();
             final long startTimeNanos = System.nanoTime();
-
+            final long blockedNanosBefore = bufferSpaceMonitor.getBlockedNanos();
 
             boolean isThreadInterrupted = false;
             try {
                 IOException lastException = null;
-                long retryCount = 0;
                 while (true) {
                     try {
                         fluentd.emit(tag, eventTime, data);
-                        long elapsedTimeNanos = System.nanoTime() - startTimeNanos;
-                        LOGGER.log(Level.FINEST, "Log event emitted after {0} nanoseconds", new Object[] { elapsedTimeNanos });
+                        if (LOGGER.isLoggable(Level.FINEST)) {
+                            long elapsedTimeNanos = System.nanoTime() - startTimeNanos;
+                            LOGGER.log(Level.FINEST, "Log event emitted after {0} nanoseconds", new Object[] { elapsedTimeNanos });
+                        }
                         break;
                     } catch (IOException ex) {
                         lastException = ex;
                     }
 
-                    long elapsedMillis = (System.nanoTime() - startTimeNanos) / 1_000_000;
-                    if (timeoutMillis >= 0 && elapsedMillis > timeoutMillis) {
-                        throw new IOException("Failed to emit log event after " + timeoutMillis + " milliseconds. Giving up.", lastException);
+                    long elapsedNanos = System.nanoTime() - startTimeNanos;
+                    long remainingNanos = Long.MAX_VALUE;
+                    if (timeoutMillis >= 0) {
+                        remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - elapsedNanos;
+                        if (remainingNanos <= 0) {
+                            throw new IOException("Failed to emit log event after " + timeoutMillis + " milliseconds. Giving up.", lastException);
+                        }
                     }
 
                     try {
-                        // Use exponential back-off that grows slowly and is
-                        // capped at a not too high value so that the retry
-                        // rate is high enough to prevent longer delays.
                         // It's expected that Fluency's buffers run full
-                        // frequently and retrying must happen here without
-                        // adding much delay.
-                        long delayMicros = (long) (10_000.0 * Math.pow(1.3, (double) Math.min(retryCount, 18)));
-                        TimeUnit.MICROSECONDS.sleep(delayMicros);
+                        // frequently. Instead of polling, wait until the
+                        // flusher has freed buffer space. The wait is
+                        // bounded so that errors other than a full buffer
+                        // get retried, too.
+                        bufferSpaceMonitor.awaitSpace(Math.min(remainingNanos, bufferSpaceMonitor.getMaxAwaitNanos()));
                     } catch (InterruptedException ex) {
                         isThreadInterrupted = true;
                     }
-                    retryCount++;
                 }
             } finally {
                 if (isThreadInterrupted) {
                     // restore thread's interrupted status
                     Thread.currentThread().interrupt();
                 }
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    long blockedNanos = bufferSpaceMonitor.getBlockedNanos() - blockedNanosBefore;
+                    if (blockedNanos > 0) {
+                        // approximation only, as other emit tasks may have been blocked concurrently
+                        LOGGER.log(Level.FINEST, "Emitting log event was blocked for about {0} nanoseconds waiting for buffer space",
+                            new Object[] { blockedNanos });
+                    }
+                }
             }
             return null;
         }
@@ -202,13 +241,43 @@ public class FluentdEventWriter implements EventWriter {
         }
     }
 
+    /**
+     * A tasks that flushes Fluency's buffers.<p/>
+     *
+     * It is supposed to be executed in a separate thread to protect it from
+     * thread interrupts by Jenkins. Fluency has a bug that leads to loss of
+     * buffered event data in case of thread interrupt.
+     */
+    private class FluencyFlushTask implements Callable<Void> {
+
+        @Override
+        public Void call() throws IOException {
+            boolean isThreadInterrupted = false;
+            try {
+                fluentd.flush();
+                if (!fluentd.waitUntilAllBufferFlushed(config.getMaxWaitSecondsUntilBufferFlushed())) {
+                    throw new IOException("Not all data could be flushed.");
+                }
+            } catch (InterruptedException e) {
+                isThreadInterrupted = true;
+            } finally {
+                if (isThreadInterrupted) {
+                    // restore thread's interrupted status
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+    }
+
     @Override
     public void close() throws Exception
     {
-        try {
-            this.lock.writeLock().lock();
-            failIfClosed();
+        if (!this.closeGuard.close()) {
+            throw new IllegalStateException("object is closed already");
+        }
 
+        try {
             boolean isThreadInterrupted = false;
             try {
                 // run Fluency.emit() in another thread to protect it from
@@ -221,7 +290,7 @@ public class FluentdEventWriter implements EventWriter {
                     }
                     catch (InterruptedException ex) {
                         // remember that the thread has been interrupted,
-                        // but still wait for completion of the emit task
+                        // but still wait for completion of the task
                         isThreadInterrupted = true;
                     }
                     catch (ExecutionException ex) {
@@ -242,10 +311,12 @@ public class FluentdEventWriter implements EventWriter {
             checkForRetryableException();
         }
         finally {
+            LOGGER.log(Level.FINE, "Emitting log events was blocked for {0} ms in total waiting for free buffer space",
+                TimeUnit.NANOSECONDS.toMillis(bufferSpaceMonitor.getBlockedNanos()));
+
             this.executor.shutdown();
             this.executor = null;
             this.fluentd = null;
-            this.lock.writeLock().unlock();
         }
     }
 
@@ -302,10 +373,4 @@ public class FluentdEventWriter implements EventWriter {
             throw new IOException("Some data couldn't be sent.", re);
         }
     }
-
-    private void failIfClosed() throws IllegalStateException {
-        if (this.isClosed) {
-            throw new IllegalStateException("object is closed already");
-        }
-    }
 }
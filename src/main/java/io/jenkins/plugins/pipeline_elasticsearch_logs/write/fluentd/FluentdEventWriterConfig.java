@@ -1,7 +1,5 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs.write.fluentd;
 
-import java.io.ObjectStreamException;
-
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -10,7 +8,7 @@ import hudson.model.Run;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriterConfig;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriterRunConfig;
-import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.SharedEventWriterFactory;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.EventWriterPool;
 
 /**
  * The configuration of {@link FluentdEventWriter}.
@@ -55,8 +53,6 @@ public class FluentdEventWriterConfig
     private static final int DEFAULT_EMIT_TIMEOUT_MILLIS = -1; // forever
     private int emitTimeoutMillis = DEFAULT_EMIT_TIMEOUT_MILLIS;
 
-    private transient SharedEventWriterFactory sharedWriterFactory;
-
     @DataBoundConstructor
     public FluentdEventWriterConfig(
         String host,
@@ -110,22 +106,8 @@ public class FluentdEventWriterConfig
         if (emitTimeoutMillis != null) {
             this.emitTimeoutMillis = emitTimeoutMillis;
         }
-
-        init();
-    }
-
-    private void init() {
-        this.sharedWriterFactory = new SharedEventWriterFactory(
-            () -> new FluentdEventWriter(this)
-        );
-    }
-
-    protected Object readResolve() throws ObjectStreamException {
-        init();
-        return this;
     }
 
-
     public String getHost() {
         return host;
     }
@@ -237,8 +219,42 @@ public class FluentdEventWriterConfig
         return this;
     }
 
+    /**
+     * @return a key identifying the endpoint and all settings used by {@link
+     *     FluentdEventWriter}.
+     */
+    private String getDestinationKey() {
+        return String.join("|",
+            FluentdEventWriter.class.getName(),
+            host,
+            String.valueOf(port),
+            tag,
+            String.valueOf(senderBaseRetryIntervalMillis),
+            String.valueOf(senderMaxRetryIntervalMillis),
+            String.valueOf(senderMaxRetryCount),
+            String.valueOf(connectionTimeoutMillis),
+            String.valueOf(readTimeoutMillis),
+            String.valueOf(maxWaitSecondsUntilBufferFlushed),
+            String.valueOf(maxWaitSecondsUntilFlusherTerminated),
+            String.valueOf(bufferChunkInitialSize),
+            String.valueOf(bufferChunkRetentionSize),
+            String.valueOf(bufferChunkRetentionTimeMillis),
+            String.valueOf(flushAttemptIntervalMillis),
+            String.valueOf(maxBufferSize),
+            String.valueOf(emitTimeoutMillis)
+        );
+    }
+
+    /**
+     * Returns a writer from the {@link EventWriterPool}, i.e. all runs
+     * sending events to the same Fluentd endpoint share a single Fluency
+     * instance and therefore its buffers.
+     */
     @Override
     public EventWriter createEventWriter() {
-        return this.sharedWriterFactory.createEventWriter();
+        return EventWriterPool.createEventWriter(
+            getDestinationKey(),
+            () -> new FluentdEventWriter(this)
+        );
     }
 }
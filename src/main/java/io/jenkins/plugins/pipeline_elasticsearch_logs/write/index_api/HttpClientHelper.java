@@ -0,0 +1,118 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.index_api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.SSLHelper;
+
+/**
+ * Creates the HTTP clients used to access the Elasticsearch endpoint of an
+ * {@link IndexAPIEventWriterRunConfig}.
+ */
+final class HttpClientHelper {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpClientHelper.class.getName());
+
+    private HttpClientHelper() {
+    }
+
+    /**
+     * Creates a new HTTP client with the timeouts and the trust store of the
+     * given config.
+     */
+    @Nonnull
+    static CloseableHttpClient createHttpClient(@Nonnull IndexAPIEventWriterRunConfig config) {
+        HttpClientBuilder clientBuilder = HttpClientBuilder.create();
+
+        RequestConfig.Builder requestBuilder = RequestConfig.custom();
+        if (config.getConnectTimeoutMillis() != null) {
+            requestBuilder.setConnectTimeout(config.getConnectTimeoutMillis());
+        }
+        if (config.getRequestTimeoutMillis() != null) {
+            requestBuilder.setConnectionRequestTimeout(config.getRequestTimeoutMillis());
+        }
+        if (config.getSocketTimeoutMillis() != null) {
+            requestBuilder.setSocketTimeout(config.getSocketTimeoutMillis());
+        }
+        clientBuilder.setDefaultRequestConfig(requestBuilder.build());
+
+        KeyStore trustStore = createTrustStore(config);
+        if (trustStore != null) {
+            try {
+                SSLHelper.setClientBuilderSSLContext(clientBuilder, trustStore);
+            } catch (KeyManagementException | CertificateException | NoSuchAlgorithmException | KeyStoreException | IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to set SSLContext for HTTP client. Will try without.", e);
+            }
+        }
+
+        CloseableHttpClient httpClient = clientBuilder.build();
+        if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("New HTTP client created");
+        return httpClient;
+    }
+
+    /**
+     * Creates a new HTTP client context with the credentials of the given
+     * config, if any.
+     */
+    @Nonnull
+    static HttpClientContext createHttpClientContext(@Nonnull IndexAPIEventWriterRunConfig config) {
+        HttpClientContext httpClientContext = HttpClientContext.create();
+
+        if (StringUtils.isNotBlank(config.getUsername())) {
+            URI indexUrl = config.getIndexUrl();
+            HttpHost targetHost = new HttpHost(indexUrl.getHost(), indexUrl.getPort(), indexUrl.getScheme());
+            org.apache.http.client.CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(
+                new AuthScope(targetHost),
+                new UsernamePasswordCredentials(config.getUsername(), StringUtils.defaultString(config.getPassword()))
+            );
+
+            AuthCache authCache = new BasicAuthCache();
+            authCache.put(targetHost, new BasicScheme());
+            httpClientContext.setCredentialsProvider(credentialsProvider);
+            httpClientContext.setAuthCache(authCache);
+        }
+
+        return httpClientContext;
+    }
+
+    @CheckForNull
+    private static KeyStore createTrustStore(IndexAPIEventWriterRunConfig config) {
+        byte[] trustStoreBytes = config.getTrustStoreBytes();
+        if (trustStoreBytes != null) {
+            try {
+                KeyStore trustStore = KeyStore.getInstance("PKCS12");
+                trustStore.load(new ByteArrayInputStream(trustStoreBytes), "".toCharArray());
+                return trustStore;
+            } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to create trust store from bytes", e);
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,121 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.index_api;
+
+import static com.google.common.collect.Range.closedOpen;
+import static io.jenkins.plugins.pipeline_elasticsearch_logs.Utils.logExceptionAndReraiseWithTruncatedDetails;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import com.google.common.collect.Range;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.CloseGuard;
+import net.sf.json.JSONObject;
+
+/**
+ * An {@link EventReader} using the Elasticsearch Search API on the index
+ * events are written to by {@link IndexAPIEventWriter}.
+ * <p>
+ * The search URL is derived from the index URL by replacing a trailing
+ * endpoint segment like <code>_doc</code> with <code>_search</code>, e.g.
+ * <code>https://host:9200/jenkins/_doc</code> becomes
+ * <code>https://host:9200/jenkins/_search</code>.
+ * </p>
+ */
+public class IndexAPIEventReader implements EventReader {
+    private static final Logger LOGGER = Logger.getLogger(IndexAPIEventReader.class.getName());
+
+    private static final Range<Integer> SUCCESS_CODES = closedOpen(200, 300);
+
+    private final URI searchUrl;
+
+    private CloseableHttpClient httpClient;
+
+    private HttpClientContext httpClientContext;
+
+    // guards search() against concurrent close()
+    private final CloseGuard closeGuard = new CloseGuard();
+
+    IndexAPIEventReader(IndexAPIEventWriterRunConfig config) {
+        this.searchUrl = getSearchUrl(config.getIndexUrl());
+        this.httpClientContext = HttpClientHelper.createHttpClientContext(config);
+        this.httpClient = HttpClientHelper.createHttpClient(config);
+    }
+
+    @Override
+    public JSONObject search(JSONObject request) throws IOException {
+        int guardToken = this.closeGuard.enter();
+        try {
+            HttpPost post = new HttpPost(this.searchUrl);
+            StringEntity input = new StringEntity(request.toString(), StandardCharsets.UTF_8);
+            input.setContentType(ContentType.APPLICATION_JSON.toString());
+            post.setEntity(input);
+
+            JSONObject result = null;
+            CloseableHttpResponse response = null;
+            try {
+                response = this.httpClient.execute(post, this.httpClientContext);
+                String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (!SUCCESS_CODES.contains(statusCode)) {
+                    throw new IOException("HTTP error code: " + statusCode + "\nURI: " + this.searchUrl + "\nRESPONSE: " + body);
+                }
+                result = JSONObject.fromObject(body);
+            } catch (Exception e) {
+                logExceptionAndReraiseWithTruncatedDetails(LOGGER, Level.SEVERE, "Could not search events in Elasticsearch", e);
+            } finally {
+                if (response != null) EntityUtils.consumeQuietly(response.getEntity());
+            }
+            return result;
+        }
+        finally {
+            this.closeGuard.exit(guardToken);
+        }
+    }
+
+    @Nonnull
+    static URI getSearchUrl(@Nonnull URI indexUrl) {
+        String path = indexUrl.getPath() == null ? "" : indexUrl.getPath();
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        int lastSlash = path.lastIndexOf('/');
+        if (lastSlash >= 0 && path.startsWith("_", lastSlash + 1)) {
+            path = path.substring(0, lastSlash);
+        }
+        try {
+            return new URI(indexUrl.getScheme(), indexUrl.getUserInfo(), indexUrl.getHost(), indexUrl.getPort(), path + "/_search", null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid index URL " + indexUrl, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closeGuard.close()) {
+            throw new IllegalStateException("object is closed already");
+        }
+
+        try {
+            this.httpClient.close();
+        }
+        finally {
+            this.httpClient = null;
+            this.httpClientContext = null;
+        }
+    }
+}
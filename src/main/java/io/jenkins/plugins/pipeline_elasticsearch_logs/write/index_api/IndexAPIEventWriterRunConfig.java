@@ -2,8 +2,8 @@ package io.jenkins.plugins.pipeline_elasticsearch_logs.write.index_api;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectStreamException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -19,9 +19,10 @@ import org.apache.commons.lang.StringUtils;
 import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriterRunConfig;
-import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.SharedEventWriterFactory;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.EventWriterPool;
 
 /**
  * A run-specific config for {@link IndexAPIEventWriter} created from a {@link
@@ -34,6 +35,12 @@ import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.SharedEventWri
  * The TLS truststore credential data is loaded and stored here so that it is
  * also available on remote agents.
  * </p>
+ * <p>
+ * Writers are taken from the {@link EventWriterPool}, i.e. all runs using the
+ * same Elasticsearch endpoint with the same settings share a single writer and
+ * thereby its HTTP client and connections. Events are not batched, each event
+ * is still sent in a request of its own.
+ * </p>
  */
 public class IndexAPIEventWriterRunConfig implements EventWriterRunConfig {
 
@@ -61,8 +68,6 @@ public class IndexAPIEventWriterRunConfig implements EventWriterRunConfig {
     @CheckForNull
     private final byte[] trustStoreBytes;
 
-    private transient SharedEventWriterFactory sharedWriterFactory;
-
     IndexAPIEventWriterRunConfig(
         @Nonnull IndexAPIEventWriterConfig config
     ) {
@@ -88,19 +93,6 @@ public class IndexAPIEventWriterRunConfig implements EventWriterRunConfig {
         else {
             this.trustStoreBytes = null;
         }
-
-        init();
-    }
-
-    private void init() {
-        this.sharedWriterFactory = new SharedEventWriterFactory(
-            () -> new IndexAPIEventWriter(this)
-        );
-    }
-
-    protected Object readResolve() throws ObjectStreamException {
-        init();
-        return this;
     }
 
     @Nonnull
@@ -156,8 +148,35 @@ public class IndexAPIEventWriterRunConfig implements EventWriterRunConfig {
         return "https".equals(scheme);
     }
 
+    /**
+     * @return a key identifying the endpoint and all settings used by {@link
+     *     IndexAPIEventWriter}. Credentials are only contained as digest.
+     */
+    private String getDestinationKey() {
+        return String.join("|",
+            IndexAPIEventWriter.class.getName(),
+            String.valueOf(this.indexUrl),
+            String.valueOf(this.connectTimeoutMillis),
+            String.valueOf(this.requestTimeoutMillis),
+            String.valueOf(this.socketTimeoutMillis),
+            EventWriterPool.digest(
+                this.username == null ? null : this.username.getBytes(StandardCharsets.UTF_8),
+                this.password == null ? null : this.password.getBytes(StandardCharsets.UTF_8),
+                this.trustStoreBytes
+            )
+        );
+    }
+
     @Override
     public EventWriter createEventWriter() {
-        return this.sharedWriterFactory.createEventWriter();
+        return EventWriterPool.createEventWriter(
+            getDestinationKey(),
+            () -> new IndexAPIEventWriter(this)
+        );
+    }
+
+    @Override
+    public EventReader createEventReader() {
+        return new IndexAPIEventReader(this);
     }
 }
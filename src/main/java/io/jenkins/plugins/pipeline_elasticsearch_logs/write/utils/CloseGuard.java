@@ -0,0 +1,131 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Guards the operations of an object against concurrent closing, like the
+ * read lock of a {@link java.util.concurrent.locks.ReadWriteLock} would do,
+ * but without a single shared counter that all threads contend on.
+ * <p>
+ * Each thread counts its active operations in one of several stripes selected
+ * by its thread ID. The stripes are padded to be located in different cache
+ * lines. {@link #close()} marks the guard as closed and waits until the
+ * counters of all stripes are zero. Operations entered after that fail.
+ * </p>
+ * <p>
+ * Usage:
+ * </p>
+ * <pre>
+ * int token = guard.enter();
+ * try {
+ *     ...
+ * } finally {
+ *     guard.exit(token);
+ * }
+ * </pre>
+ */
+public final class CloseGuard {
+
+    // number of longs per stripe - 128 bytes cover two cache lines, as some
+    // CPUs prefetch adjacent cache lines
+    private static final int PADDING = 16;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray counters;
+    private final int stripeMask;
+
+    private volatile boolean isClosed = false;
+
+    public CloseGuard() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    CloseGuard(int parallelism) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, parallelism * 2 - 1)) << 1;
+        this.stripeMask = stripeCount - 1;
+        this.counters = new AtomicLongArray(stripeCount * PADDING);
+    }
+
+    /**
+     * Enters a guarded operation. Each successful call must be followed by
+     * a call of {@link #exit(int)} with the returned token in the same
+     * thread.
+     *
+     * @return the token to pass to {@link #exit(int)}
+     * @throws IllegalStateException
+     *     if this guard has been closed.
+     */
+    public int enter() throws IllegalStateException {
+        int index = stripeIndex();
+        this.counters.incrementAndGet(index);
+        // Must be checked after the increment: close() sets the flag
+        // before it checks the counters, so either close() sees the
+        // increment or this thread sees the flag.
+        if (this.isClosed) {
+            this.counters.decrementAndGet(index);
+            throw new IllegalStateException("object is closed already");
+        }
+        return index;
+    }
+
+    /**
+     * Exits a guarded operation.
+     *
+     * @param token
+     *     The token returned by the corresponding call of {@link #enter()}.
+     */
+    public void exit(int token) {
+        this.counters.decrementAndGet(token);
+    }
+
+    /**
+     * @return <code>true</code> if {@link #close()} has been called.
+     */
+    public boolean isClosed() {
+        return this.isClosed;
+    }
+
+    /**
+     * Closes this guard and waits until all operations in progress have
+     * exited.
+     *
+     * @return <code>false</code> if this guard was closed already.
+     */
+    public boolean close() {
+        synchronized (this) {
+            if (this.isClosed) {
+                return false;
+            }
+            this.isClosed = true;
+        }
+
+        boolean isThreadInterrupted = false;
+        long parkNanos = 1_000;
+        for (int index = 0; index < this.counters.length(); index += PADDING) {
+            while (this.counters.get(index) != 0) {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    // operations in progress must not be cut short,
+                    // so keep on waiting
+                    isThreadInterrupted = true;
+                }
+            }
+        }
+        if (isThreadInterrupted) {
+            // restore thread's interrupted status
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        // spread sequential thread IDs
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & this.stripeMask) * PADDING;
+    }
+}
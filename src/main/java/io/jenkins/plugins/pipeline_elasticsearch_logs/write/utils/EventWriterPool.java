@@ -0,0 +1,114 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+
+/**
+ * A JVM-wide pool of shared {@link EventWriter} instances keyed by
+ * destination.
+ * <p>
+ * All runs sending events to the same destination get proxies of the same
+ * shared writer (see {@link SharedEventWriterFactory}). This way writers
+ * which buffer events, i.e. the Fluentd writer, can send larger batches
+ * containing events of multiple runs, and connections are reused across runs.
+ * The Index API writer does not buffer events, i.e. it only shares its
+ * connections. Closing a proxy waits until
+ * the events pushed via the proxy have been flushed, so that all events of a
+ * run are sent when the run's writer gets closed.
+ * </p>
+ * <p>
+ * The shared writer of a destination gets closed and removed from the pool
+ * once the last proxy has been closed.
+ * </p>
+ */
+public final class EventWriterPool {
+
+    private static final ConcurrentMap<String, SharedEventWriterFactory> factoriesByDestination = new ConcurrentHashMap<>();
+
+    private EventWriterPool() {
+    }
+
+    /**
+     * Returns a proxy of the shared writer for the given destination.
+     *
+     * @param destinationKey
+     *     Identifies the destination. Writers created by the given factory
+     *     must be interchangeable for all callers using the same key, i.e.
+     *     the key must cover all configuration used by the created writers.
+     * @param factory
+     *     The factory used to create the shared writer if there is none for
+     *     the given destination yet.
+     * @return The writer proxy. Must be closed by the caller.
+     */
+    @Nonnull
+    public static EventWriter createEventWriter(@Nonnull String destinationKey, @Nonnull EventWriterFactory factory) {
+        while (true) {
+            SharedEventWriterFactory sharedFactory = factoriesByDestination.computeIfAbsent(
+                destinationKey,
+                key -> new SharedEventWriterFactory(factory, () -> retireIfUnused(key))
+            );
+            EventWriter writer = sharedFactory.tryCreateEventWriter();
+            if (writer != null) {
+                return writer;
+            }
+            // the factory has been retired concurrently and is about to be
+            // removed - try again with a new one
+        }
+    }
+
+    private static void retireIfUnused(String destinationKey) {
+        factoriesByDestination.computeIfPresent(
+            destinationKey,
+            (key, sharedFactory) -> sharedFactory.retireIfUnused() ? null : sharedFactory
+        );
+    }
+
+    /**
+     * @return the number of destinations which currently have a shared
+     *     writer.
+     */
+    static int size() {
+        return factoriesByDestination.size();
+    }
+
+    /**
+     * Creates a digest of the given values which can be used as (part of) a
+     * destination key without revealing secrets like passwords.
+     *
+     * @param values
+     *     The values to digest. <code>null</code> values are allowed.
+     * @return a hex representation of the digest.
+     */
+    @Nonnull
+    public static String digest(@CheckForNull byte[]... values) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] value : values) {
+                if (value == null) {
+                    digest.update((byte) 0);
+                } else {
+                    digest.update((byte) 1);
+                    digest.update(Integer.toString(value.length).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) ':');
+                    digest.update(value);
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required to be supported by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
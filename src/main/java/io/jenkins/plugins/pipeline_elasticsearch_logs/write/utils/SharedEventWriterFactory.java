@@ -2,7 +2,11 @@ package io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
@@ -18,80 +22,284 @@ import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
  * by calling the underlying factory.
  * </p>
  * <p>
- * When {@link EventWriterProxy#close()} is called, the reference counter is
- * decreased. If it reaches zero, i.e. the last proxy was closed, also the
- * shared instance gets closed.
+ * When {@link EventWriterProxy#close()} is called, the events pushed via the
+ * proxy are flushed and the reference counter is decreased. If it reaches
+ * zero, i.e. the last proxy was closed, also the shared instance gets closed.
+ * </p>
+ * <p>
+ * The pushes to a shared instance are numbered. Each proxy remembers the
+ * number of its last push, and each flush of the shared instance the number
+ * of the last push before it started. Flushing a proxy only waits until a
+ * flush covering its last push has completed. Proxies flushing concurrently
+ * share a single flush of the shared instance, and a proxy whose events have
+ * been covered by a flush already does not flush at all.
+ * </p>
+ * <p>
+ * Reference counting is done with atomic operations, only the creation of a
+ * new shared instance is serialized. {@link EventWriterProxy#push(Map)} does
+ * not take any lock.
  * </p>
  */
 public final class SharedEventWriterFactory implements EventWriterFactory {
 
     private final EventWriterFactory factory;
 
-    private EventWriter sharedInstance;
-    private int refCount = 0;
+    @CheckForNull
+    private final Runnable unusedListener;
+
+    // the lease of the current shared instance, null if there is none
+    private final AtomicReference<Lease> currentLease = new AtomicReference<>();
+
+    // serializes the creation of shared instances and retirement
+    private final Object creationLock = new Object();
+
+    // guarded by creationLock
+    private boolean isRetired = false;
 
     /**
      * @param factory The underlying factory.
      */
     public SharedEventWriterFactory(@Nonnull EventWriterFactory factory) {
-        this.factory = factory;
+        this(factory, null);
     }
 
-    private synchronized EventWriter getSharedInstance() {
-        return this.sharedInstance;
+    /**
+     * @param factory The underlying factory.
+     * @param unusedListener
+     *     Gets called each time the shared instance has been closed because
+     *     the last proxy was closed.
+     */
+    SharedEventWriterFactory(@Nonnull EventWriterFactory factory, @CheckForNull Runnable unusedListener) {
+        this.factory = factory;
+        this.unusedListener = unusedListener;
     }
 
     @Override
-    public synchronized EventWriter createEventWriter() {
-        if (this.refCount == 0) {
-            this.sharedInstance = factory.createEventWriter();
+    public EventWriter createEventWriter() {
+        EventWriter writer = tryCreateEventWriter();
+        if (writer == null) {
+            throw new IllegalStateException("factory is retired");
         }
-        this.refCount++;
-        return new EventWriterProxy();
+        return writer;
     }
 
-    private synchronized void releaseEventWriter() throws Exception {
-        if (this.refCount == 0) {
+    /**
+     * Like {@link #createEventWriter()}, but returns <code>null</code> if
+     * this factory has been retired.
+     */
+    @CheckForNull
+    EventWriter tryCreateEventWriter() {
+        Lease lease = this.currentLease.get();
+        if (lease != null && lease.tryRetain()) {
+            return new EventWriterProxy(lease);
+        }
+
+        synchronized (this.creationLock) {
+            if (this.isRetired) {
+                return null;
+            }
+            // the current lease may have been replaced in the meantime
+            lease = this.currentLease.get();
+            if (lease != null && lease.tryRetain()) {
+                return new EventWriterProxy(lease);
+            }
+            lease = new Lease(factory.createEventWriter());
+            this.currentLease.set(lease);
+            return new EventWriterProxy(lease);
+        }
+    }
+
+    /**
+     * Retires this factory if there is no unclosed proxy. A retired factory
+     * does not create event writers anymore.
+     *
+     * @return <code>true</code> if this factory is retired.
+     */
+    boolean retireIfUnused() {
+        synchronized (this.creationLock) {
+            Lease lease = this.currentLease.get();
+            // a lease with ref count zero can never be retained again
+            if (lease == null || lease.refCount.get() == 0) {
+                this.isRetired = true;
+            }
+            return this.isRetired;
+        }
+    }
+
+    private void release(Lease lease) throws Exception {
+        int refCount = lease.refCount.decrementAndGet();
+        if (refCount < 0) {
             // should never happen
-            throw new IllegalStateException("releaseEventWriter() called although ref count is zero");
+            throw new IllegalStateException("release() called although ref count is zero");
+        }
+        if (refCount == 0) {
+            // might fail if a new lease has been created already
+            this.currentLease.compareAndSet(lease, null);
+            try {
+                lease.writer.close();
+            }
+            finally {
+                if (this.unusedListener != null) {
+                    this.unusedListener.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * A shared instance together with its reference counter. Once the
+     * reference counter dropped to zero, the lease is dead and cannot be
+     * retained anymore.
+     */
+    private static final class Lease {
+        final EventWriter writer;
+        final AtomicInteger refCount = new AtomicInteger(1);
+
+        // the number of the last push to the shared instance
+        final AtomicLong pushCount = new AtomicLong();
+
+        // guarded by this, all pushes up to this number have been flushed
+        private long flushedCount = 0;
+
+        // guarded by this
+        private boolean isFlushing = false;
+
+        Lease(EventWriter writer) {
+            this.writer = writer;
+        }
+
+        /**
+         * Pushes the given event to the shared instance.
+         *
+         * @return the number of the push.
+         */
+        long push(Map<String, Object> data) throws IOException {
+            this.writer.push(data);
+            // counted afterwards, as a flush only covers completed pushes
+            return this.pushCount.incrementAndGet();
+        }
+
+        /**
+         * Waits until the pushes up to the given number have been flushed,
+         * flushing the shared instance if no flush covering them is in
+         * progress.
+         *
+         * @throws IOException
+         *     if the flush started by this call failed.
+         */
+        void flush(long pushNumber) throws IOException {
+            while (true) {
+                long target;
+                synchronized (this) {
+                    boolean isThreadInterrupted = false;
+                    try {
+                        while (this.isFlushing && this.flushedCount < pushNumber) {
+                            try {
+                                wait();
+                            }
+                            catch (InterruptedException ex) {
+                                // like the writers, protect the flush from
+                                // thread interrupts by Jenkins
+                                isThreadInterrupted = true;
+                            }
+                        }
+                    }
+                    finally {
+                        if (isThreadInterrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    if (this.flushedCount >= pushNumber) {
+                        return;
+                    }
+                    this.isFlushing = true;
+                    target = this.pushCount.get();
+                }
+
+                boolean isFlushed = false;
+                try {
+                    this.writer.flush();
+                    isFlushed = true;
+                }
+                finally {
+                    synchronized (this) {
+                        this.isFlushing = false;
+                        if (isFlushed) {
+                            this.flushedCount = Math.max(this.flushedCount, target);
+                        }
+                        notifyAll();
+                    }
+                }
+            }
         }
 
-        this.refCount--;
-        if (this.refCount == 0) {
-            EventWriter w = this.sharedInstance;
-            this.sharedInstance = null;
-            w.close();
+        boolean tryRetain() {
+            while (true) {
+                int current = this.refCount.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (this.refCount.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
         }
     }
 
-    private class EventWriterProxy implements EventWriter {
+    private final class EventWriterProxy implements EventWriter {
+
+        // null once the proxy is closed
+        private final AtomicReference<Lease> lease;
 
-        private boolean isClosed = false;
+        // the number of the last push via this proxy, 0 if there is none
+        private final AtomicLong lastPush = new AtomicLong();
+
+        EventWriterProxy(Lease lease) {
+            this.lease = new AtomicReference<>(lease);
+        }
 
         @Override
         public void push(Map<String, Object> data) throws IOException {
-            EventWriter sharedInstance;
-            synchronized (this) {
-                failIfClosed();
-                sharedInstance = getSharedInstance();
-                // because proxy is not closed yet, sharedInstance
-                // must be non-null
-            }
-            sharedInstance.push(data);
+            long pushNumber = getLeaseIfNotClosed().push(data);
+            this.lastPush.accumulateAndGet(pushNumber, Math::max);
         }
 
+        /**
+         * Waits until the events pushed via this proxy have been sent, but
+         * not for events pushed via other proxies later on.
+         */
         @Override
-        public synchronized void close() throws Exception {
-            failIfClosed();
+        public void flush() throws IOException {
+            getLeaseIfNotClosed().flush(this.lastPush.get());
+        }
 
-            this.isClosed = true;
-            SharedEventWriterFactory.this.releaseEventWriter();
+        private Lease getLeaseIfNotClosed() throws IllegalStateException {
+            Lease l = this.lease.get();
+            if (l == null) {
+                throw new IllegalStateException("object is closed already");
+            }
+            // because proxy is not closed yet, the shared instance
+            // is not closed either
+            return l;
         }
 
-        private void failIfClosed() throws IllegalStateException {
-            if (this.isClosed) {
+        @Override
+        public void close() throws Exception {
+            Lease l = this.lease.getAndSet(null);
+            if (l == null) {
                 throw new IllegalStateException("object is closed already");
             }
+
+            try {
+                // the shared instance is flushed by closing it with the
+                // last proxy
+                if (l.refCount.get() > 1) {
+                    l.flush(this.lastPush.get());
+                }
+            }
+            finally {
+                release(l);
+            }
         }
     }
 }
@@ -0,0 +1,144 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryIndexTest {
+
+    private File index;
+    private BinaryIndex binaryIndex;
+
+    @Before
+    public void setUp() throws IOException {
+        index = File.createTempFile("log-index", null);
+        Files.delete(index.toPath());
+        binaryIndex = new BinaryIndex(index);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(new File(index + ".bin").toPath());
+        Files.deleteIfExists(new File(index + ".ids").toPath());
+    }
+
+    private static List<String> readAll(TransitionReader reader) throws IOException {
+        List<String> result = new ArrayList<>();
+        try {
+            while (reader.next()) {
+                result.add(reader.getPosition() + " " + reader.getId());
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Assert.assertFalse(binaryIndex.exists());
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            Assert.assertNull(writer.getLastId());
+            writer.add(0, "3");
+            writer.add(10, null);
+            writer.add(25, "4");
+            writer.add(30, "3");
+        }
+
+        Assert.assertTrue(binaryIndex.exists());
+        Assert.assertEquals(4 * BinaryIndex.RECORD_SIZE, binaryIndex.length());
+        Assert.assertEquals(List.of("0 3", "10 null", "25 4", "30 3"), readAll(binaryIndex.openReader(0)));
+        Assert.assertEquals(List.of("25 4", "30 3"), readAll(binaryIndex.openReader(2 * BinaryIndex.RECORD_SIZE)));
+    }
+
+    @Test
+    public void testRecordsAreWrittenOnFlush() throws IOException {
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(0, "3");
+            Assert.assertEquals(0, binaryIndex.length());
+            writer.flush();
+            Assert.assertEquals(BinaryIndex.RECORD_SIZE, binaryIndex.length());
+            // the id has been written already, i.e. new readers can resolve it
+            writer.add(10, "4");
+            writer.flush();
+            Assert.assertEquals(List.of("0 3", "10 4"), readAll(binaryIndex.openReader(0)));
+        }
+    }
+
+    @Test
+    public void testReopenedWriterContinues() throws IOException {
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(0, "3");
+            writer.add(10, "4");
+        }
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            Assert.assertEquals("4", writer.getLastId());
+            writer.add(20, "3");
+            writer.add(30, "5");
+        }
+
+        Assert.assertEquals(List.of("0 3", "10 4", "20 3", "30 5"), readAll(binaryIndex.openReader(0)));
+    }
+
+    @Test
+    public void testIncompleteRecordIsIgnored() throws IOException {
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(0, "3");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(index + ".bin", "rw")) {
+            file.seek(file.length());
+            file.write(new byte[5]);
+        }
+        Assert.assertEquals(List.of("0 3"), readAll(binaryIndex.openReader(0)));
+
+        // dropped by the next writer
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            Assert.assertEquals("3", writer.getLastId());
+            writer.add(10, "4");
+        }
+        Assert.assertEquals(List.of("0 3", "10 4"), readAll(binaryIndex.openReader(0)));
+    }
+
+    @Test
+    public void testIncompleteIdIsDropped() throws IOException {
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(0, "3");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(index + ".ids", "rw")) {
+            file.seek(file.length());
+            file.write("12".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(10, "4");
+        }
+        Assert.assertEquals(List.of("0 3", "10 4"), readAll(binaryIndex.openReader(0)));
+        Assert.assertEquals(List.of("3", "4"), Files.readAllLines(new File(index + ".ids").toPath()));
+    }
+
+    @Test
+    public void testOpenReaderAt() throws IOException {
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            for (int i = 0; i < 1000; i++) {
+                writer.add(i * 10, Integer.toString(i));
+            }
+        }
+
+        // starts with the transition the position belongs to
+        Assert.assertEquals(List.of("5000 500", "5010 501"), readAll(binaryIndex.openReaderAt(5005)).subList(0, 2));
+        // the transition exactly at the position is the previous one
+        Assert.assertEquals(List.of("4990 499", "5000 500"), readAll(binaryIndex.openReaderAt(5000)).subList(0, 2));
+        Assert.assertEquals(1000, readAll(binaryIndex.openReaderAt(0)).size());
+        Assert.assertEquals(List.of("9990 999"), readAll(binaryIndex.openReaderAt(20000)));
+    }
+}
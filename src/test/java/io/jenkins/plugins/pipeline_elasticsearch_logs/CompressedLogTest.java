@@ -0,0 +1,113 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedLogTest {
+
+    private File dir;
+    private File log;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("compressed-log").toFile();
+        log = new File(dir, "log");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("line ").append(i).append(" äöü\n");
+        }
+        content = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(log.toPath(), content);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        CompressedLog compressed = CompressedLog.compress(log, 100);
+        Assert.assertTrue(compressed.exists());
+        Assert.assertEquals(content.length, compressed.length());
+
+        try (LogReader reader = compressed.openReader()) {
+            for (long pos : new long[] {0, 99, 100, 101, 5555, content.length - 1}) {
+                byte[] b = new byte[10];
+                int n = reader.read(pos, b, 0, b.length);
+                Assert.assertTrue(n > 0);
+                for (int i = 0; i < n; i++) {
+                    Assert.assertEquals(content[(int) pos + i], b[i]);
+                }
+            }
+            Assert.assertEquals(-1, reader.read(content.length, new byte[10], 0, 10));
+        }
+    }
+
+    @Test
+    public void testReadRanges() throws IOException {
+        CompressedLog compressed = CompressedLog.compress(log, 64);
+        long[] ranges = {10, 20, 150, 1000, 5000, content.length};
+        LogRangesByteBuffer buf = new LogRangesByteBuffer(compressed::openReader, compressed.toString(), ranges);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < ranges.length; i += 2) {
+            expected.write(content, (int) ranges[i], (int) (ranges[i + 1] - ranges[i]));
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        buf.writeTo(actual);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        actual.reset();
+        try (InputStream in = buf.newInputStream()) {
+            in.transferTo(actual);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testIsRegularGzipFile() throws IOException {
+        CompressedLog.compress(log, 100);
+        try (InputStream in = new GZIPInputStream(new FileInputStream(new File(dir, "log.gz")))) {
+            Assert.assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testDecompressTo() throws IOException {
+        CompressedLog compressed = CompressedLog.compress(log);
+        File target = new File(dir, "decompressed");
+        compressed.decompressTo(target);
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testEmptyLog() throws IOException {
+        Files.write(log.toPath(), new byte[0]);
+        CompressedLog compressed = CompressedLog.compress(log);
+        Assert.assertEquals(0, compressed.length());
+        try (LogReader reader = compressed.openReader()) {
+            Assert.assertEquals(-1, reader.read(0, new byte[10], 0, 10));
+        }
+    }
+
+    @Test
+    public void testNotExisting() {
+        Assert.assertFalse(new CompressedLog(log).exists());
+    }
+}
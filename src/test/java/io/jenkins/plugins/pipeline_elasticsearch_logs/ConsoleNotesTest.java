@@ -2,14 +2,18 @@ package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Test;
 
+import hudson.console.ConsoleNote;
+
 public class ConsoleNotesTest {
 
     @Test
@@ -48,4 +52,39 @@ public class ConsoleNotesTest {
                 writer.getBuffer().toString());
     }
 
+    private static String removeNotes(String line) throws IOException {
+        // bytes after len must be ignored
+        byte[] b = (line + ConsoleNote.POSTAMBLE_STR + "garbage").getBytes(StandardCharsets.UTF_8);
+        int len = line.getBytes(StandardCharsets.UTF_8).length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConsoleNotes.removeNotes(b, len, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String note(String content) {
+        return ConsoleNote.PREAMBLE_STR + content + ConsoleNote.POSTAMBLE_STR;
+    }
+
+    @Test
+    public void testRemoveNotesWithoutNotes() throws IOException {
+        assertEquals("Hello w\u00f6rld\n", removeNotes("Hello w\u00f6rld\n"));
+        assertEquals("", removeNotes(""));
+    }
+
+    @Test
+    public void testRemoveNotes() throws IOException {
+        String line = "Started by user " + note("abc") + "admin " + note("def") + note("ghi") + "\u00e4\n";
+        assertEquals(ConsoleNote.removeNotes(line), removeNotes(line));
+        assertEquals("Started by user admin \u00e4\n", removeNotes(line));
+        assertEquals("", removeNotes(note("abc")));
+    }
+
+    @Test
+    public void testRemoveNotesMalformed() throws IOException {
+        // missing postamble, the rest is kept
+        String line = "a" + note("b") + "c" + ConsoleNote.PREAMBLE_STR + "d\n";
+        assertEquals("ac" + ConsoleNote.PREAMBLE_STR + "d\n", removeNotes(line));
+        // incomplete preamble at the end
+        assertEquals("a\u001B[8m", removeNotes("a\u001B[8m"));
+    }
 }
@@ -0,0 +1,70 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DelayBufferedOutputStreamTest {
+
+    @Test
+    public void testBufferIsFlushedAfterSomeTime() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DelayBufferedOutputStream os = new DelayBufferedOutputStream(out)) {
+            os.write("hello".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(0, out.size());
+
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (out.size() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("hello", out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testRecentlyWrittenBufferIsNotFlushed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DelayBufferedOutputStream os = new DelayBufferedOutputStream(out)) {
+            os.write("full".getBytes(StandardCharsets.UTF_8));
+            // written out like a full buffer
+            os.flush();
+            os.write("more".getBytes(StandardCharsets.UTF_8));
+
+            os.flushAndReschedule();
+            Assert.assertEquals("full", out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testBufferSizeIsAdapted() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DelayBufferedOutputStream os = new DelayBufferedOutputStream(out)) {
+            int initialSize = os.getBufferSize();
+
+            // more than fits into the buffer
+            os.write(new byte[initialSize + 100]);
+            os.flushAndReschedule();
+            Assert.assertEquals(initialSize * 2, os.getBufferSize());
+
+            // nothing written
+            os.flushAndReschedule();
+            Assert.assertEquals(initialSize, os.getBufferSize());
+            os.flushAndReschedule();
+            Assert.assertEquals(initialSize, os.getBufferSize());
+        }
+    }
+
+    @Test
+    public void testOnTickRunsPeriodically() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CountDownLatch ticks = new CountDownLatch(2);
+        try (DelayBufferedOutputStream os = new DelayBufferedOutputStream(out, ticks::countDown)) {
+            Assert.assertTrue(ticks.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
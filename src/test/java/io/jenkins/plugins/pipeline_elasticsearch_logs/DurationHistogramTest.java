@@ -0,0 +1,53 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DurationHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        DurationHistogram histogram = new DurationHistogram();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+        Assert.assertEquals(0, histogram.getPercentile(95));
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketAccuracy() {
+        DurationHistogram histogram = new DurationHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.add(i);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500500, histogram.getTotal());
+        Assert.assertEquals(1000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        Assert.assertTrue(String.valueOf(p50), p50 >= 500 && p50 <= 500 * 1.2);
+        long p95 = histogram.getPercentile(95);
+        Assert.assertTrue(String.valueOf(p95), p95 >= 950 && p95 <= 1000);
+    }
+
+    @Test
+    public void testPercentileDoesNotExceedMaximum() {
+        DurationHistogram histogram = new DurationHistogram();
+        histogram.add(1234);
+
+        Assert.assertEquals(1234, histogram.getPercentile(50));
+        Assert.assertEquals(1234, histogram.getPercentile(95));
+    }
+
+    @Test
+    public void testBucketsCoverAllDurations() {
+        int previous = 0;
+        for (long duration = 0; duration < 100000; duration++) {
+            int bucket = DurationHistogram.bucket(duration);
+            Assert.assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+        // large durations need only a few buckets
+        Assert.assertTrue(DurationHistogram.bucket(Long.MAX_VALUE / 2) < 64 * DurationHistogram.SUB_BUCKETS);
+    }
+}
@@ -1,14 +1,21 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -22,7 +29,8 @@ import io.jenkins.plugins.pipeline_elasticsearch_logs.runid.DefaultRunIdProvider
 public class ElasticsearchTest {
     @Rule
     public JenkinsRule jenkinsRule = new JenkinsRule();
-    List<Map<String, Object>> elasticsearchLoggedLines = new ArrayList<>();
+    // events of the flow graph might be sent by another thread
+    List<Map<String, Object>> elasticsearchLoggedLines = Collections.synchronizedList(new ArrayList<>());
 
     @Before
     public void setup() throws Exception {
@@ -36,6 +44,7 @@ public class ElasticsearchTest {
 
     @After
     public void teardown() throws Exception {
+        System.clearProperty(ElasticsearchGraphListener.class.getName() + ".synchronous");
         elasticsearchLoggedLines.clear();
     }
 
@@ -62,30 +71,224 @@ public class ElasticsearchTest {
         WorkflowJob project = jenkinsRule.createProject(WorkflowJob.class);
         project.setDefinition(new CpsFlowDefinition("node { echo message: 'hello' }", true));
         jenkinsRule.buildAndAssertSuccess(project);
+        waitForBuildEnd();
 
-        assertEquals(21, elasticsearchLoggedLines.size());
+        assertEquals(22, elasticsearchLoggedLines.size());
 
-        assertLogLine(0, "buildStart");
-        assertLogLine(1, "buildMessage", "Started");
-        assertLogLine(2, "buildMessage", "[Pipeline] Start of Pipeline");
-        assertLogLine(3, "flowGraph::flowStart");
-        assertLogLine(4, "buildMessage", "[Pipeline] node");
-        assertLogLine(5, "flowGraph::nodeStart");
-        // skip 6
-        assertLogLine(7, "buildMessage", "[Pipeline] {");
-        assertLogLine(8, "flowGraph::nodeStart");
-        assertLogLine(9, "buildMessage", "[Pipeline] echo");
-        assertLogLine(10, "flowGraph::atomNodeStart");
-        assertLogLine(11, "nodeMessage", "hello");
-        assertLogLine(12, "buildMessage", "[Pipeline] }");
-        assertLogLine(13, "flowGraph::atomNodeEnd");
-        assertLogLine(14, "buildMessage", "[Pipeline] // node");
-        assertLogLine(15, "flowGraph::nodeEnd");
-        assertLogLine(16, "buildMessage", "[Pipeline] End of Pipeline");
-        assertLogLine(17, "flowGraph::nodeEnd");
-        assertLogLine(18, "flowGraph::flowEnd");
-        assertLogLine(19, "buildMessage", "Finished: SUCCESS");
-        assertLogLine(20, "buildEnd");
+        // the events of the flow graph are sent asynchronously, i.e. they are
+        // only in order relative to each other
+        List<Map<String, Object>> flowGraphEvents = new ArrayList<>();
+        List<Map<String, Object>> otherEvents = new ArrayList<>();
+        synchronized (elasticsearchLoggedLines) {
+            for (Map<String, Object> line : elasticsearchLoggedLines) {
+                String eventType = (String) line.get("eventType");
+                (eventType.startsWith("flowGraph::") ? flowGraphEvents : otherEvents).add(line);
+            }
+        }
+
+        assertEvent(flowGraphEvents.get(0), "flowGraph::flowStart");
+        assertEvent(flowGraphEvents.get(1), "flowGraph::nodeStart");
+        assertEvent(flowGraphEvents.get(2), "flowGraph::nodeStart");
+        assertEvent(flowGraphEvents.get(3), "flowGraph::atomNodeStart");
+        assertEvent(flowGraphEvents.get(4), "flowGraph::atomNodeEnd");
+        assertEvent(flowGraphEvents.get(5), "flowGraph::nodeEnd");
+        assertEvent(flowGraphEvents.get(6), "flowGraph::nodeEnd");
+        assertEvent(flowGraphEvents.get(7), "flowGraph::flowEnd");
+        assertEvent(flowGraphEvents.get(8), "flowGraph::summary");
+
+        assertEvent(otherEvents.get(0), "buildStart");
+        assertEvent(otherEvents.get(1), "buildMessage", "Started");
+        assertEvent(otherEvents.get(2), "buildMessage", "[Pipeline] Start of Pipeline");
+        assertEvent(otherEvents.get(3), "buildMessage", "[Pipeline] node");
+        // skip 4
+        assertEvent(otherEvents.get(5), "buildMessage", "[Pipeline] {");
+        assertEvent(otherEvents.get(6), "buildMessage", "[Pipeline] echo");
+        assertEvent(otherEvents.get(7), "nodeMessage", "hello");
+        assertEvent(otherEvents.get(8), "buildMessage", "[Pipeline] }");
+        assertEvent(otherEvents.get(9), "buildMessage", "[Pipeline] // node");
+        assertEvent(otherEvents.get(10), "buildMessage", "[Pipeline] End of Pipeline");
+        assertEvent(otherEvents.get(11), "buildMessage", "Finished: SUCCESS");
+        assertEvent(otherEvents.get(12), "buildEnd");
+    }
+
+    /*
+     * Waits until the end of the run has been sent, i.e. all events of the
+     * run including those of the flow graph.
+     */
+    private void waitForBuildEnd() throws InterruptedException {
+        while (true) {
+            synchronized (elasticsearchLoggedLines) {
+                for (Map<String, Object> line : elasticsearchLoggedLines) {
+                    if ("buildEnd".equals(line.get("eventType"))) {
+                        return;
+                    }
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testAsynchronousFlowGraphEventsMatchSynchronousOnes() throws Exception {
+        WorkflowJob project = jenkinsRule.createProject(WorkflowJob.class);
+        project.setDefinition(new CpsFlowDefinition(
+            "stage('build') { parallel first: { echo 'in first' }, second: { echo 'in second' } }", true));
+        System.setProperty(ElasticsearchGraphListener.class.getName() + ".synchronous", "true");
+        jenkinsRule.buildAndAssertSuccess(project);
+        waitForBuildEnd();
+        List<Map<String, Object>> synchronousEvents = flowGraphEvents();
+
+        elasticsearchLoggedLines.clear();
+        System.clearProperty(ElasticsearchGraphListener.class.getName() + ".synchronous");
+        jenkinsRule.buildAndAssertSuccess(project);
+        waitForBuildEnd();
+        List<Map<String, Object>> asynchronousEvents = flowGraphEvents();
+
+        // the branches might be interleaved differently
+        assertEquals(sorted(synchronousEvents), sorted(asynchronousEvents));
+        // end events are sent after the start events
+        List<Object> sentIds = new ArrayList<>();
+        for (Map<String, Object> event : asynchronousEvents) {
+            Object startId = event.get("startId");
+            if (startId != null) {
+                assertTrue(sentIds.contains(startId));
+            }
+            sentIds.add(event.get("flowNodeId"));
+        }
+        // the listener has been closed after all events have been sent
+        List<Object> eventTypes = new ArrayList<>();
+        synchronized (elasticsearchLoggedLines) {
+            for (Map<String, Object> line : elasticsearchLoggedLines) {
+                eventTypes.add(line.get("eventType"));
+            }
+        }
+        assertTrue(eventTypes.indexOf("flowGraph::flowEnd") < eventTypes.indexOf("flowGraph::summary"));
+        assertTrue(eventTypes.indexOf("flowGraph::summary") < eventTypes.indexOf("buildEnd"));
+    }
+
+    /*
+     * Returns the events of the flow graph in the order in which they have
+     * been sent, without the fields which differ between runs.
+     */
+    private List<Map<String, Object>> flowGraphEvents() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (elasticsearchLoggedLines) {
+            for (Map<String, Object> line : elasticsearchLoggedLines) {
+                String eventType = (String) line.get("eventType");
+                if (eventType.startsWith("flowGraph::") && !"flowGraph::summary".equals(eventType)) {
+                    Map<String, Object> event = new HashMap<>(line);
+                    event.keySet().removeAll(Arrays.asList("timestamp", "timestampMillis", "runId", "uid", "duration"));
+                    result.add(event);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static List<Map<String, Object>> sorted(List<Map<String, Object>> events) {
+        List<Map<String, Object>> result = new ArrayList<>(events);
+        result.sort(Comparator
+            .comparing((Map<String, Object> event) -> Integer.parseInt((String) event.get("flowNodeId")))
+            .thenComparing(event -> (String) event.get("eventType")));
+        return result;
+    }
+
+    @Test
+    public void testShortAtomNodesAreCompacted() throws Exception {
+        ElasticsearchGlobalConfig.get().getElasticsearch().setCompactAtomNodesShorterThan(60 * 1000);
+        WorkflowJob project = jenkinsRule.createProject(WorkflowJob.class);
+        project.setDefinition(new CpsFlowDefinition("node { echo message: 'hello' }", true));
+        jenkinsRule.buildAndAssertSuccess(project);
+        waitForBuildEnd();
+
+        List<Map<String, Object>> atomNodes = new ArrayList<>();
+        for (Map<String, Object> line : elasticsearchLoggedLines) {
+            assertNotEquals("flowGraph::atomNodeStart", line.get("eventType"));
+            assertNotEquals("flowGraph::atomNodeEnd", line.get("eventType"));
+            if ("flowGraph::atomNode".equals(line.get("eventType"))) {
+                atomNodes.add(line);
+            }
+        }
+        assertEquals(1, atomNodes.size());
+        assertEquals("echo", atomNodes.get(0).get("step"));
+        assertEquals("SUCCESS", atomNodes.get(0).get("result"));
+        assertTrue(atomNodes.get(0).containsKey("duration"));
+    }
+
+    @Test
+    public void testParallelBranchOfInnerStep() throws Exception {
+        WorkflowJob project = jenkinsRule.createProject(WorkflowJob.class);
+        project.setDefinition(new CpsFlowDefinition(
+            "parallel first: { echo 'in first' }, second: { echo 'in second' }", true));
+        jenkinsRule.buildAndAssertSuccess(project);
+        waitForBuildEnd();
+
+        Map<String, Object> firstStart = null;
+        Map<String, Object> secondStart = null;
+        Map<String, Object> firstMessage = null;
+        for (Map<String, Object> line : elasticsearchLoggedLines) {
+            if ("flowGraph::atomNodeStart".equals(line.get("eventType")) && "echo".equals(line.get("step"))) {
+                if ("first".equals(line.get("parallelBranchName"))) {
+                    firstStart = line;
+                } else if ("second".equals(line.get("parallelBranchName"))) {
+                    secondStart = line;
+                }
+            } else if ("in first".equals(line.get("message"))) {
+                firstMessage = line;
+            }
+        }
+        assertNotNull(firstStart);
+        assertNotNull(secondStart);
+        assertNotNull(firstStart.get("parallelBranchId"));
+        assertNotNull(secondStart.get("parallelBranchId"));
+        assertNotEquals(firstStart.get("parallelBranchId"), secondStart.get("parallelBranchId"));
+
+        // the log line of the step is attributed to the same branch
+        assertNotNull(firstMessage);
+        assertEquals("first", firstMessage.get("parallelBranchName"));
+        assertEquals(firstStart.get("parallelBranchId"), firstMessage.get("parallelBranchId"));
+    }
+
+    @Test
+    public void testLogFileKeepsOrderOfStepAndOverallOutput() throws Exception {
+        WorkflowJob project = jenkinsRule.createProject(WorkflowJob.class);
+        project.setDefinition(new CpsFlowDefinition("echo 'one'; echo 'two'; echo 'three'", true));
+        WorkflowRun run = jenkinsRule.buildAndAssertSuccess(project);
+
+        List<String> lines = new ArrayList<>();
+        for (String line : run.getLog(Integer.MAX_VALUE)) {
+            if (line.startsWith("[Pipeline]") || line.matches("one|two|three")) {
+                lines.add(line);
+            }
+        }
+        assertEquals(Arrays.asList(
+            "[Pipeline] Start of Pipeline",
+            "[Pipeline] echo", "one",
+            "[Pipeline] echo", "two",
+            "[Pipeline] echo", "three",
+            "[Pipeline] End of Pipeline"), lines);
+    }
+
+    @Test
+    public void testLongAtomNodesAreNotCompacted() throws Exception {
+        ElasticsearchGlobalConfig.get().getElasticsearch().setCompactAtomNodesShorterThan(100);
+        WorkflowJob project = jenkinsRule.createProject(WorkflowJob.class);
+        project.setDefinition(new CpsFlowDefinition("sleep 2; sleep 2", true));
+        jenkinsRule.buildAndAssertSuccess(project);
+        waitForBuildEnd();
+
+        List<Object> eventTypes = new ArrayList<>();
+        synchronized (elasticsearchLoggedLines) {
+            for (Map<String, Object> line : elasticsearchLoggedLines) {
+                if ("sleep".equals(line.get("step"))) {
+                    eventTypes.add(line.get("eventType"));
+                }
+            }
+        }
+        // the start events have been sent while the steps were running
+        assertEquals(Arrays.asList(
+            "flowGraph::atomNodeStart", "flowGraph::atomNodeEnd",
+            "flowGraph::atomNodeStart", "flowGraph::atomNodeEnd"), eventTypes);
     }
 
     private void assertLogLine(int lineIndex, String eventType) {
@@ -97,7 +300,18 @@ public class ElasticsearchTest {
     }
 
     private void assertLogLine(int lineIndex, String project, String buildId, String eventType, String message) {
-        Map<String, Object> line = elasticsearchLoggedLines.get(lineIndex);
+        assertEvent(elasticsearchLoggedLines.get(lineIndex), project, buildId, eventType, message);
+    }
+
+    private void assertEvent(Map<String, Object> line, String eventType) {
+        assertEvent(line, eventType, null);
+    }
+
+    private void assertEvent(Map<String, Object> line, String eventType, String message) {
+        assertEvent(line, "test0", "1", eventType, message);
+    }
+
+    private void assertEvent(Map<String, Object> line, String project, String buildId, String eventType, String message) {
         assertTrue(line.containsKey("timestampMillis"));
         assertTrue(line.containsKey("timestamp"));
         if (project != null && buildId != null) {
@@ -5,6 +5,8 @@ import static io.jenkins.plugins.pipeline_elasticsearch_logs.testutils.JSONUtils
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.http.conn.ConnectTimeoutException;
@@ -21,7 +23,8 @@ import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriterRunConfig
 public class EventWriterMock extends EventWriterConfig
     implements EventWriterRunConfig, EventWriter {
 
-    private ArrayList<String> events = new ArrayList<>();
+    // events of the flow graph are pushed by another thread
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
     private boolean printToLog = false;
     private boolean failConnection = false;
 
@@ -60,7 +63,19 @@ public class EventWriterMock extends EventWriterConfig
      * @return all entries the plugin tried to sent to Elasticsearch
      */
     public ArrayList<String> getEvents() {
-        return events;
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    /**
+     * Waits until the end of the run has been sent, i.e. all events of the
+     * run including those of the flow graph.
+     */
+    public void waitForBuildEnd() throws InterruptedException {
+        while (getEvents().stream().noneMatch(event -> event.contains("\"buildEnd\""))) {
+            Thread.sleep(10);
+        }
     }
 
     @Override
@@ -0,0 +1,85 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GCFlushedOutputStreamTest {
+
+    @Test
+    public void testUnreachableStreamIsFlushed() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = GCFlushedOutputStream.getGCFlushCount();
+        write(new GCFlushedOutputStream(new BufferedOutputStream(out)), "hello");
+        Assert.assertEquals(0, out.size());
+
+        long timeout = System.currentTimeMillis() + 10_000;
+        while (out.size() == 0 && System.currentTimeMillis() < timeout) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertEquals("hello", out.toString("UTF-8"));
+        Assert.assertTrue(GCFlushedOutputStream.getGCFlushCount() > count);
+    }
+
+    @Test
+    public void testFlushOfUnreachableStreamIsLogged() throws Exception {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(MessageFormat.format(record.getMessage(), record.getParameters()));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(GCFlushedOutputStream.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.FINE);
+        logger.addHandler(handler);
+        try {
+            write(new GCFlushedOutputStream(new BufferedOutputStream(new ByteArrayOutputStream()), "log of test"), "hello");
+
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (messages.stream().noneMatch(m -> m.contains("log of test")) && System.currentTimeMillis() < timeout) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(messages.toString(), messages.stream().anyMatch(m -> m.startsWith("Flushing log of test before garbage collection")));
+        } finally {
+            logger.removeHandler(handler);
+            logger.setLevel(level);
+        }
+    }
+
+    @Test
+    public void testClosedStreamIsFlushed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream os = new GCFlushedOutputStream(new BufferedOutputStream(out))) {
+            write(os, "hello");
+        }
+        Assert.assertEquals("hello", out.toString("UTF-8"));
+    }
+
+    private static void write(OutputStream os, String s) throws IOException {
+        os.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
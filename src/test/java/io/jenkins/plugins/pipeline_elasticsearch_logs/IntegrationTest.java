@@ -1,6 +1,6 @@
 package io.jenkins.plugins.pipeline_elasticsearch_logs;
 
-import static io.jenkins.plugins.pipeline_elasticsearch_logs.testutils.AssertionUtils.assertMatchEntries;
+import static io.jenkins.plugins.pipeline_elasticsearch_logs.testutils.AssertionUtils.assertMatchEntriesInAnyInterleaving;
 import static io.jenkins.plugins.pipeline_elasticsearch_logs.testutils.AssertionUtils.assertMatchLines;
 import static io.jenkins.plugins.pipeline_elasticsearch_logs.testutils.LogUtils.removeAnnotations;
 import static io.jenkins.plugins.pipeline_elasticsearch_logs.testutils.ResourceUtils.getExpectedTestJsonLog;
@@ -24,7 +24,6 @@ import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.Assert;
-import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -58,10 +57,6 @@ public class IntegrationTest {
     public LoggerRule logs = new LoggerRule().record(Logger.getLogger(""),
             Level.WARNING);
 
-    @Before
-    public void before() {
-    }
-
     @Test
     public void testFreestyleWithoutElasticsearchPlugin() throws Exception {
         FreeStyleProject project = j.createFreeStyleProject();
@@ -116,8 +111,9 @@ public class IntegrationTest {
 
         Assert.assertEquals(Result.SUCCESS, project.getLastBuild().getResult());
 
+        mockWriter.waitForBuildEnd();
         JSONArray expectedLog = getExpectedTestJsonLog();
-        assertMatchEntries(expectedLog, mockWriter.getEvents());
+        assertMatchEntriesInAnyInterleaving(expectedLog, mockWriter.getEvents());
     }
 
     @Test
@@ -137,8 +133,9 @@ public class IntegrationTest {
         File logFile = new File(build.getRootDir(), "log");
         Assert.assertThat(logFile.exists(), equalTo(true));
 
+        mockWriter.waitForBuildEnd();
         JSONArray expectedJsonLog = getExpectedTestJsonLog();
-        assertMatchEntries(expectedJsonLog, mockWriter.getEvents());
+        assertMatchEntriesInAnyInterleaving(expectedJsonLog, mockWriter.getEvents());
 
         String expectedLog = getExpectedTestLog();
         String log = removeAnnotations(build.getLogText());
@@ -236,8 +233,9 @@ public class IntegrationTest {
 
         Assert.assertEquals(Result.FAILURE, project.getLastBuild().getResult());
 
+        mockWriter.waitForBuildEnd();
         JSONArray expectedLog = getExpectedTestJsonLog();
-        assertMatchEntries(expectedLog, mockWriter.getEvents());
+        assertMatchEntriesInAnyInterleaving(expectedLog, mockWriter.getEvents());
     }
 
     private void configureElasticsearchPlugin(boolean activate, EventWriterConfig mockWriter) throws URISyntaxException {
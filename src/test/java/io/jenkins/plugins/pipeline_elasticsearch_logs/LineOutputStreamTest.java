@@ -0,0 +1,113 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineOutputStreamTest {
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final LineOutputStream out = new LineOutputStream() {
+        @Override
+        protected void eol(byte[] b, int len) {
+            lines.add(new String(b, 0, len, StandardCharsets.UTF_8));
+        }
+    };
+
+    private void write(String s) throws IOException {
+        byte[] b = ("xx" + s + "yy").getBytes(StandardCharsets.UTF_8);
+        out.write(b, 2, b.length - 4);
+    }
+
+    @Test
+    public void testBulkWrite() throws IOException {
+        write("first\nsecond\n\nthird");
+        Assert.assertEquals(List.of("first\n", "second\n", "\n"), lines);
+
+        write(" continued\nfourth");
+        out.close();
+        Assert.assertEquals(List.of("first\n", "second\n", "\n", "third continued\n", "fourth"), lines);
+    }
+
+    @Test
+    public void testLineAtStartOfArray() throws IOException {
+        byte[] b = "first\nsecond\n".getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+        Assert.assertEquals(List.of("first\n", "second\n"), lines);
+    }
+
+    @Test
+    public void testSingleBytes() throws IOException {
+        for (byte b : "ab\nc".getBytes(StandardCharsets.UTF_8)) {
+            out.write(b);
+        }
+        write("d\n");
+        Assert.assertEquals(List.of("ab\n", "cd\n"), lines);
+    }
+
+    @Test
+    public void testLongLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            line.append("0123456789");
+            write("0123456789");
+        }
+        write("\nnext\n");
+        Assert.assertEquals(List.of(line + "\n", "next\n"), lines);
+    }
+
+    @Test
+    public void testForceEol() throws IOException {
+        out.forceEol();
+        Assert.assertEquals(List.of(), lines);
+        write("abc");
+        out.forceEol();
+        out.forceEol();
+        Assert.assertEquals(List.of("abc"), lines);
+    }
+
+    @Test
+    public void testLongLinesAreSplit() throws IOException {
+        List<String> partialLines = new ArrayList<>();
+        LineOutputStream out = new LineOutputStream(4) {
+            @Override
+            protected void eol(byte[] b, int len) {
+                lines.add(new String(b, 0, len, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            protected void partialLine(byte[] b, int len) {
+                partialLines.add(new String(b, 0, len, StandardCharsets.UTF_8));
+            }
+        };
+        byte[] b = "abcdefghij\nabcd\n".getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+        for (byte c : "0123456789".getBytes(StandardCharsets.UTF_8)) {
+            out.write(c);
+        }
+        out.close();
+
+        Assert.assertEquals(List.of("abcd", "efgh", "abcd", "0123", "4567"), partialLines);
+        Assert.assertEquals(List.of("ij\n", "\n", "89"), lines);
+    }
+
+    @Test
+    public void testCharactersAreNotSplit() throws IOException {
+        LineOutputStream out = new LineOutputStream(4) {
+            @Override
+            protected void eol(byte[] b, int len) {
+                lines.add(new String(b, 0, len, StandardCharsets.UTF_8));
+            }
+        };
+        // 1 + 2 + 3 + 4 bytes
+        byte[] b = "a\u00e4\u20ac\ud83d\ude00\n".getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+
+        Assert.assertEquals(List.of("a\u00e4", "\u20ac", "\ud83d\ude00", "\n"), lines);
+    }
+}
@@ -0,0 +1,100 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogCopiesTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("log-copies").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private File request(LogCopies copies, String build, int length) throws IOException {
+        File copy = copies.getCopy(new File(build, "log"));
+        if (!copy.isFile()) {
+            Files.write(copy.toPath(), new byte[length]);
+        }
+        copies.requested(copy);
+        return copy;
+    }
+
+    @Test
+    public void testCopiesArePerLog() {
+        LogCopies copies = new LogCopies(dir, 1000, 1000, now::get);
+
+        Assert.assertEquals(copies.getCopy(new File("1", "log")), copies.getCopy(new File("1", "log")));
+        Assert.assertNotEquals(copies.getCopy(new File("1", "log")), copies.getCopy(new File("2", "log")));
+    }
+
+    @Test
+    public void testCopiesNotRequestedAreDeletedAfterMaxAge() throws IOException {
+        LogCopies copies = new LogCopies(dir, 1000, 1000, now::get);
+        File first = request(copies, "1", 10);
+        File second = request(copies, "2", 10);
+
+        now.addAndGet(600);
+        request(copies, "2", 10);
+        now.addAndGet(600);
+        File third = request(copies, "3", 10);
+
+        Assert.assertFalse(first.exists());
+        Assert.assertTrue(second.exists());
+        Assert.assertTrue(third.exists());
+    }
+
+    @Test
+    public void testLeastRecentlyRequestedCopiesAreDeletedAboveMaxSize() throws IOException {
+        LogCopies copies = new LogCopies(dir, 60_000, 25, now::get);
+        File first = request(copies, "1", 10);
+        now.addAndGet(1000);
+        File second = request(copies, "2", 10);
+        now.addAndGet(1000);
+        request(copies, "1", 10);
+        now.addAndGet(1000);
+        File third = request(copies, "3", 10);
+
+        Assert.assertTrue(first.exists());
+        Assert.assertFalse(second.exists());
+        Assert.assertTrue(third.exists());
+    }
+
+    @Test
+    public void testRequestedCopyIsKeptAboveMaxSize() throws IOException {
+        LogCopies copies = new LogCopies(dir, 60_000, 5, now::get);
+        File first = request(copies, "1", 10);
+
+        Assert.assertTrue(first.exists());
+    }
+
+    @Test
+    public void testCopiesBeingWrittenAreKeptAboveMaxSize() throws IOException {
+        LogCopies copies = new LogCopies(dir, 60_000, 5, now::get);
+        File tmp = new File(copies.getCopy(new File("1", "log")) + ".tmp");
+        Files.write(tmp.toPath(), new byte[10]);
+        tmp.setLastModified(now.get());
+
+        request(copies, "2", 10);
+
+        Assert.assertTrue(tmp.exists());
+    }
+}
@@ -0,0 +1,84 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogRangesByteBufferTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("log", null);
+        Files.write(file.toPath(), "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private LogRangesByteBuffer newBuffer(long[] ranges) {
+        return new LogRangesByteBuffer(() -> LogReader.open(file), file.toString(), ranges);
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[3];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLength() {
+        Assert.assertEquals(0, newBuffer(new long[] {}).length());
+        Assert.assertEquals(9, newBuffer(new long[] {2, 5, 5, 5, 10, 16}).length());
+    }
+
+    @Test
+    public void testNewInputStream() throws IOException {
+        LogRangesByteBuffer buf = newBuffer(new long[] {2, 5, 5, 5, 10, 16});
+        try (InputStream in = buf.newInputStream()) {
+            Assert.assertEquals("234abcdef", readAll(in));
+        }
+        try (InputStream in = newBuffer(new long[] {}).newInputStream()) {
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        LogRangesByteBuffer buf = newBuffer(new long[] {2, 5, 10, 16});
+        try (InputStream in = buf.newInputStream()) {
+            Assert.assertEquals(4, in.skip(4));
+            Assert.assertEquals('b', in.read());
+            Assert.assertEquals("cdef", readAll(in));
+            Assert.assertEquals(0, in.skip(1));
+        }
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        LogRangesByteBuffer buf = newBuffer(new long[] {0, 1, 18, 20});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buf.writeTo(out);
+        Assert.assertEquals("0ij", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteFails() throws IOException {
+        newBuffer(new long[] {}).write(1);
+    }
+}
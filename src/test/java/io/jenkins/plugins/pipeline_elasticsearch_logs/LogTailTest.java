@@ -0,0 +1,131 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogTailTest {
+
+    private final StringBuilder file = new StringBuilder();
+    private final AtomicInteger fallbackCount = new AtomicInteger();
+
+    private void write(LogTail tail, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        tail.write(b, 0, b.length);
+        file.append(s);
+    }
+
+    /*
+     * Reads from the content written so far.
+     */
+    private LogReader openFile() {
+        fallbackCount.incrementAndGet();
+        String content = file.toString();
+        return new LogReader() {
+            @Override
+            public int read(long position, byte[] b, int off, int len) {
+                if (position >= content.length()) {
+                    return -1;
+                }
+                int n = (int) Math.min(len, content.length() - position);
+                byte[] bytes = content.substring((int) position, (int) position + n).getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(bytes, 0, b, off, n);
+                return n;
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private String read(LogTail tail, long position, int len) throws IOException {
+        byte[] b = new byte[len];
+        int pos = 0;
+        try (LogReader reader = tail.openReader(this::openFile)) {
+            while (pos < len) {
+                int n = reader.read(position + pos, b, pos, len - pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+        }
+        return new String(b, 0, pos, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readTransitions(TransitionReader reader) throws IOException {
+        List<String> result = new ArrayList<>();
+        while (reader.next()) {
+            result.add(reader.getPosition() + " " + reader.getId());
+        }
+        return result;
+    }
+
+    @Test
+    public void testRecentOutputIsReadFromMemory() throws IOException {
+        file.append("0123456789");
+        LogTail tail = new LogTail(8, 10);
+        write(tail, "abcdef");
+
+        Assert.assertEquals(10, tail.start());
+        Assert.assertEquals(16, tail.end());
+        Assert.assertEquals("cdef", read(tail, 12, 10));
+        Assert.assertEquals(0, fallbackCount.get());
+    }
+
+    @Test
+    public void testRingWrapsAround() throws IOException {
+        LogTail tail = new LogTail(8, 0);
+        write(tail, "abcdef");
+        write(tail, "ghij");
+
+        Assert.assertEquals(2, tail.start());
+        Assert.assertEquals("cdefghij", read(tail, 2, 8));
+        Assert.assertEquals(0, fallbackCount.get());
+
+        // larger than the ring
+        write(tail, "0123456789");
+        Assert.assertEquals(12, tail.start());
+        Assert.assertEquals("23456789", read(tail, 12, 8));
+    }
+
+    @Test
+    public void testOlderOutputIsReadFromFile() throws IOException {
+        LogTail tail = new LogTail(4, 0);
+        write(tail, "abcdefgh");
+
+        Assert.assertEquals("cdefgh", read(tail, 2, 10));
+        Assert.assertEquals(1, fallbackCount.get());
+    }
+
+    @Test
+    public void testTransitions() throws IOException {
+        LogTail tail = new LogTail(8, 0);
+        tail.addTransition("3");
+        write(tail, "abc");
+        tail.addTransition(null);
+        write(tail, "def");
+
+        Assert.assertEquals(List.of("0 3", "3 null"), readTransitions(tail.openTransitionReader(0)));
+        Assert.assertEquals(List.of("3 null"), readTransitions(tail.openTransitionReader(2)));
+
+        tail.addTransition("4");
+        write(tail, "ghi");
+
+        // the first transition has been dropped with the output
+        Assert.assertNull(tail.openTransitionReader(0));
+        Assert.assertEquals(List.of("3 null", "6 4"), readTransitions(tail.openTransitionReader(1)));
+    }
+}
@@ -0,0 +1,308 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+public class SearchedLogTest {
+
+    private final List<JSONObject> events = new ArrayList<>();
+    private final AtomicInteger searchCount = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(100000);
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void addEvent(long timestampMillis, String flowNodeId, String message) {
+        addEvent(timestampMillis, 0, events.size(), flowNodeId, message);
+    }
+
+    private void addEvent(long timestampMillis, long senderId, long sequence, String flowNodeId, String message) {
+        JSONObject event = new JSONObject();
+        event.put("timestampMillis", timestampMillis);
+        event.put("senderId", senderId);
+        event.put("sequence", sequence);
+        event.put("message", message);
+        if (flowNodeId != null) {
+            event.put("flowNodeId", flowNodeId);
+        }
+        events.add(event);
+    }
+
+    private SearchedLog createLog(String nodeId, int pageSize) {
+        return createLog(nodeId, pageSize, Long.MAX_VALUE);
+    }
+
+    private SearchedLog createLog(String nodeId, int pageSize, long retainedBytes) {
+        return new SearchedLog("uid", nodeId, FakeReader::new, executor, pageSize, 1000, retainedBytes, now::get);
+    }
+
+    private static String read(SearchedLog.Content content) throws IOException {
+        byte[] b = new byte[(int) content.length()];
+        try (LogReader reader = content.openReader()) {
+            int pos = 0;
+            while (pos < b.length) {
+                pos += reader.read(pos, b, pos, b.length - pos);
+            }
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String readIndex(SearchedLog.Content content) throws IOException {
+        try (InputStream in = content.openIndex()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testOverallLogWithIndex() throws IOException {
+        addEvent(1, null, "Started");
+        addEvent(2, "3", "first");
+        addEvent(2, "3", "second");
+        addEvent(3, "4", "other");
+        addEvent(4, null, "Finished");
+
+        SearchedLog.Content content = createLog(null, 10).refresh(true);
+
+        Assert.assertEquals("Started\nfirst\nsecond\nother\nFinished\n", read(content));
+        // like log-index, no transition at the start for output not belonging to a node
+        Assert.assertEquals("8 3\n21 4\n27\n", readIndex(content));
+    }
+
+    @Test
+    public void testPagesArePrefetched() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            addEvent(i, "3", "line " + i);
+        }
+
+        SearchedLog.Content content = createLog("3", 2).refresh(true);
+
+        Assert.assertEquals("line 0\nline 1\nline 2\nline 3\nline 4\n", read(content));
+        Assert.assertEquals(3, searchCount.get());
+        // no index for step logs
+        Assert.assertEquals("", readIndex(content));
+    }
+
+    @Test
+    public void testEventsOfSendersWithSameTimestampAreAllRead() throws IOException {
+        // events of two JVMs with the same sequence numbers, sorted like by Elasticsearch
+        addEvent(1, 5, 1, "3", "a1");
+        addEvent(1, 5, 2, "3", "a2");
+        addEvent(1, 7, 1, "4", "b1");
+        addEvent(1, 7, 2, "4", "b2");
+
+        SearchedLog.Content content = createLog(null, 1).refresh(true);
+
+        Assert.assertEquals("a1\na2\nb1\nb2\n", read(content));
+    }
+
+    @Test
+    public void testSplitMessagesAreJoined() throws IOException {
+        addEvent(1, "3", "abc");
+        events.get(0).put("messageId", "m1");
+        events.get(0).put("messageCount", 0);
+        addEvent(1, "3", "def");
+        events.get(1).put("messageId", "m1");
+        events.get(1).put("messageCount", 1);
+        addEvent(2, "3", "next");
+
+        // the split message spans two pages
+        SearchedLog.Content content = createLog("3", 1).refresh(true);
+
+        Assert.assertEquals("abcdef\nnext\n", read(content));
+    }
+
+    @Test
+    public void testEvictedPagesAreSearchedAgain() throws IOException {
+        addEvent(1, null, "Started");
+        addEvent(2, "3", "abc");
+        events.get(1).put("messageId", "m1");
+        events.get(1).put("messageCount", 0);
+        addEvent(2, "3", "def");
+        events.get(2).put("messageId", "m1");
+        events.get(2).put("messageCount", 1);
+        addEvent(3, "4", "other");
+        addEvent(4, null, "Finished");
+
+        // only the last page is retained
+        SearchedLog.Content content = createLog(null, 2, 1).refresh(true);
+        int count = searchCount.get();
+
+        // each page read evicts the previous one
+        Assert.assertEquals("Started\nabcdef\nother\nFinished\n", read(content));
+        Assert.assertEquals(count + 3, searchCount.get());
+        // the index is not built again
+        Assert.assertEquals("8 3\n15 4\n21\n", readIndex(content));
+
+        // the recently read page is retained
+        byte[] b = new byte[8];
+        try (LogReader reader = content.openReader()) {
+            Assert.assertEquals(8, reader.read(21, b, 0, 8));
+        }
+        Assert.assertEquals("Finished", new String(b, StandardCharsets.UTF_8));
+        Assert.assertEquals(count + 3, searchCount.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void testEvictedPagesFailIfEventsHaveChanged() throws IOException {
+        addEvent(1, "3", "first");
+        addEvent(3, "3", "second");
+        addEvent(4, "3", "third");
+        SearchedLog.Content content = createLog("3", 1, 1).refresh(true);
+
+        // an event received late would be read as part of the first page
+        addEvent(2, "3", "late");
+        events.sort(Comparator.comparingLong(e -> ((Number) e.get("timestampMillis")).longValue()));
+        read(content);
+    }
+
+    @Test
+    public void testRecentEventsAreReadLater() throws IOException {
+        addEvent(now.get() - 5000, "3", "old");
+        addEvent(now.get() - 500, "3", "recent");
+        SearchedLog log = createLog("3", 10);
+
+        SearchedLog.Content content = log.refresh(false);
+        Assert.assertEquals("old\n", read(content));
+
+        now.addAndGet(2000);
+        content = log.refresh(false);
+        Assert.assertEquals("old\nrecent\n", read(content));
+        Assert.assertEquals(2, searchCount.get());
+
+        // all events are read once complete, no further searches afterwards
+        addEvent(now.get(), "3", "last");
+        Assert.assertEquals("old\nrecent\nlast\n", read(log.refresh(true)));
+        now.addAndGet(2000);
+        log.refresh(true);
+        int count = searchCount.get();
+        Assert.assertEquals("old\nrecent\nlast\n", read(log.refresh(true)));
+        Assert.assertEquals(count, searchCount.get());
+    }
+
+    @Test
+    public void testAnnotationsAreReinserted() throws IOException {
+        addEvent(1, "3", "Hello world");
+        JSONObject annotation = new JSONObject();
+        annotation.put("position", 6);
+        annotation.put("note", "NOTE");
+        JSONArray annotations = new JSONArray();
+        annotations.add(annotation);
+        events.get(0).put("annotations", annotations);
+
+        SearchedLog.Content content = createLog("3", 10).refresh(true);
+
+        Assert.assertEquals("Hello \u001B[8mha:NOTE\u001B[0mworld\n", read(content));
+    }
+
+    @Test
+    public void testAnnotationsOfContinuationsAreShifted() throws IOException {
+        JSONObject annotation = new JSONObject();
+        annotation.put("position", 2);
+        annotation.put("note", "NOTE");
+        JSONArray annotations = new JSONArray();
+        annotations.add(annotation);
+
+        // chunks of a line exceeding the maximum line length
+        addEvent(1, "3", "abc");
+        events.get(0).put("messageId", "m1");
+        events.get(0).put("messageCount", 0);
+        addEvent(1, "3", "defg");
+        events.get(1).put("messageId", "m1");
+        events.get(1).put("messageCount", 1);
+        events.get(1).put("annotations", annotations);
+
+        SearchedLog.Content content = createLog("3", 10).refresh(true);
+
+        Assert.assertEquals("abcde\u001B[8mha:NOTE\u001B[0mfg\n", read(content));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadingNotSupported() throws IOException {
+        new SearchedLog("uid", null, () -> null, executor, 10, 1000, Long.MAX_VALUE, now::get).refresh(true);
+    }
+
+    /*
+     * Serves the events like Elasticsearch would, i.e. evaluates the range
+     * filter, size and search_after.
+     */
+    private class FakeReader implements EventReader {
+
+        @Override
+        public JSONObject search(JSONObject request) throws IOException {
+            searchCount.incrementAndGet();
+            // round trip like over HTTP
+            request = JSONObject.fromObject(request.toString());
+            long before = Long.MAX_VALUE;
+            for (Object filter : request.getJSONObject("query").getJSONObject("bool").getJSONArray("filter")) {
+                JSONObject range = ((JSONObject) filter).optJSONObject("range");
+                if (range != null) {
+                    before = ((Number) range.getJSONObject("timestampMillis").get("lt")).longValue();
+                }
+            }
+            JSONArray searchAfter = request.optJSONArray("search_after");
+            int size = ((Number) request.get("size")).intValue();
+
+            JSONArray hits = new JSONArray();
+            for (JSONObject event : events) {
+                long timestamp = ((Number) event.get("timestampMillis")).longValue();
+                long senderId = ((Number) event.get("senderId")).longValue();
+                long sequence = ((Number) event.get("sequence")).longValue();
+                if (timestamp >= before || hits.size() == size) {
+                    continue;
+                }
+                if (searchAfter != null) {
+                    long afterTimestamp = ((Number) searchAfter.get(0)).longValue();
+                    long afterSenderId = ((Number) searchAfter.get(1)).longValue();
+                    long afterSequence = ((Number) searchAfter.get(2)).longValue();
+                    if (timestamp < afterTimestamp || timestamp == afterTimestamp
+                        && (senderId < afterSenderId || senderId == afterSenderId && sequence <= afterSequence)) {
+                        continue;
+                    }
+                }
+                JSONArray sort = new JSONArray();
+                sort.add(timestamp);
+                sort.add(senderId);
+                sort.add(sequence);
+                JSONObject hit = new JSONObject();
+                hit.put("_source", event);
+                hit.put("sort", sort);
+                hits.add(hit);
+            }
+            JSONObject hitsObject = new JSONObject();
+            hitsObject.put("hits", hits);
+            JSONObject response = new JSONObject();
+            response.put("hits", hitsObject);
+            return JSONObject.fromObject(response.toString());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
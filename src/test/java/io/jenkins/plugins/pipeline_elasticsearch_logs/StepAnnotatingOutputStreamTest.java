@@ -0,0 +1,91 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.jenkinsci.plugins.workflow.log.LogStorage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StepAnnotatingOutputStreamTest {
+
+    private static String annotate(String index, String log, long start, int chunkSize) throws IOException {
+        StringWriter w = new StringWriter();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                w.write(b);
+            }
+        };
+        IndexReader indexReader = new IndexReader(new ByteArrayInputStream(index.getBytes(StandardCharsets.UTF_8)), "index");
+        // like LargeText.writeLogTo(), the stream is flushed but not closed
+        OutputStream annotating = new StepAnnotatingOutputStream(out, w, indexReader, start);
+        byte[] bytes = log.substring((int) start).getBytes(StandardCharsets.UTF_8);
+        for (int off = 0; off < bytes.length; off += chunkSize) {
+            if (chunkSize == 1) {
+                annotating.write(bytes[off]);
+            } else {
+                annotating.write(bytes, off, Math.min(chunkSize, bytes.length - off));
+            }
+        }
+        annotating.flush();
+        return w.toString();
+    }
+
+    private static String start(String id) {
+        return LogStorage.startStep(id);
+    }
+
+    private static String end() {
+        return LogStorage.endStep();
+    }
+
+    @Test
+    public void testAnnotations() throws IOException {
+        String index = "0\n4 3\n8\n11 5\n";
+        String log = "aaa\nbbb\ncc\ndd\n";
+        String expected = "aaa\n" + start("3") + "bbb\n" + end() + "cc\n" + start("5") + "dd\n" + end();
+
+        for (int chunkSize : new int[] {1, 2, 3, 100}) {
+            Assert.assertEquals("chunk size " + chunkSize, expected, annotate(index, log, 0, chunkSize));
+        }
+    }
+
+    @Test
+    public void testStartInTheMiddle() throws IOException {
+        String index = "0\n4 3\n8\n11 5\n";
+        String log = "aaa\nbbb\ncc\ndd\n";
+        Assert.assertEquals("cc\n" + start("5") + "dd\n" + end(), annotate(index, log, 8, 100));
+    }
+
+    @Test
+    public void testWithoutIndex() throws IOException {
+        Assert.assertEquals("aaa\nbbb\n", annotate("", "aaa\nbbb\n", 0, 3));
+    }
+
+    @Test
+    public void testWritesWholeChunksBetweenTransitions() throws IOException {
+        int[] writeCalls = new int[1];
+        Writer w = new StringWriter();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                Assert.fail("single byte write");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writeCalls[0]++;
+            }
+        };
+        IndexReader indexReader = new IndexReader(new ByteArrayInputStream("0 2\n1000\n".getBytes(StandardCharsets.UTF_8)), "index");
+        StepAnnotatingOutputStream annotating = new StepAnnotatingOutputStream(out, w, indexReader, 0);
+        annotating.write(new byte[2000], 0, 2000);
+        // one byte at each transition, the remainder up to the next transition
+        Assert.assertEquals(4, writeCalls[0]);
+    }
+}
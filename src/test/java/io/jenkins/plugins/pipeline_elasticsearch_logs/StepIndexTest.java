@@ -0,0 +1,135 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StepIndexTest {
+
+    private File index;
+
+    @Before
+    public void setUp() throws IOException {
+        index = File.createTempFile("log-index", null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(index.toPath());
+        Files.deleteIfExists(new File(index + ".bin").toPath());
+        Files.deleteIfExists(new File(index + ".ids").toPath());
+    }
+
+    private void appendToIndex(String lines) throws IOException {
+        Files.write(index.toPath(), lines.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void testRangesFromIndexFile() throws IOException {
+        appendToIndex("0\n10 3\n25 4\n30 3\n42\n50 5\n");
+        StepIndex stepIndex = new StepIndex(index);
+
+        Assert.assertArrayEquals(new long[] {10, 25, 30, 42}, stepIndex.getRanges("3", 60));
+        Assert.assertArrayEquals(new long[] {25, 30}, stepIndex.getRanges("4", 60));
+        // still running
+        Assert.assertArrayEquals(new long[] {50, 60}, stepIndex.getRanges("5", 60));
+        Assert.assertArrayEquals(new long[] {}, stepIndex.getRanges("5", 50));
+        Assert.assertArrayEquals(new long[] {}, stepIndex.getRanges("6", 60));
+    }
+
+    @Test
+    public void testIndexFileIsReadIncrementally() throws IOException {
+        appendToIndex("0 3\n");
+        StepIndex stepIndex = new StepIndex(index);
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 20));
+
+        // incomplete line is ignored until it is finished
+        appendToIndex("20 4\n3");
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 40));
+        Assert.assertArrayEquals(new long[] {20, 40}, stepIndex.getRanges("4", 40));
+
+        appendToIndex("5 3\n");
+        Assert.assertArrayEquals(new long[] {0, 20, 35, 40}, stepIndex.getRanges("3", 40));
+        Assert.assertArrayEquals(new long[] {20, 35}, stepIndex.getRanges("4", 40));
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        appendToIndex("0 3\n");
+        StepIndex stepIndex = new StepIndex(index);
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 20));
+
+        // appended directly - the index file must not be read again
+        String line = "20 4\n";
+        appendToIndex(line);
+        stepIndex.append(4, line.length(), 20, "4");
+        // already added, must be ignored
+        stepIndex.append(4, line.length(), 20, "4");
+
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 30));
+        Assert.assertArrayEquals(new long[] {20, 30}, stepIndex.getRanges("4", 30));
+    }
+
+    @Test
+    public void testAppendBeforeFirstLookupIsIgnored() throws IOException {
+        StepIndex stepIndex = new StepIndex(index);
+        appendToIndex("0 3\n");
+        appendToIndex("20 4\n");
+        // the index file has not been read yet
+        stepIndex.append(4, 5, 20, "4");
+
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 30));
+        Assert.assertArrayEquals(new long[] {20, 30}, stepIndex.getRanges("4", 30));
+    }
+
+    @Test
+    public void testCorruptLinesAreIgnored() throws IOException {
+        appendToIndex("0 3\nabc 4\n20\n");
+        StepIndex stepIndex = new StepIndex(index);
+
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 30));
+        Assert.assertArrayEquals(new long[] {}, stepIndex.getRanges("4", 30));
+    }
+
+    @Test
+    public void testReplacedIndexFile() throws IOException {
+        appendToIndex("0 3\n20 4\n");
+        StepIndex stepIndex = new StepIndex(index);
+        Assert.assertArrayEquals(new long[] {0, 20}, stepIndex.getRanges("3", 30));
+
+        Files.write(index.toPath(), "0 4\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(new long[] {}, stepIndex.getRanges("3", 30));
+        Assert.assertArrayEquals(new long[] {0, 30}, stepIndex.getRanges("4", 30));
+    }
+
+    @Test
+    public void testRangesFromBinaryIndex() throws IOException {
+        BinaryIndex binaryIndex = new BinaryIndex(index);
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(10, "3");
+            writer.add(25, "4");
+        }
+        StepIndex stepIndex = new StepIndex(index);
+        Assert.assertArrayEquals(new long[] {10, 25}, stepIndex.getRanges("3", 60));
+
+        // read incrementally
+        try (BinaryIndex.Writer writer = binaryIndex.openWriter()) {
+            writer.add(30, "3");
+            writer.add(42, null);
+        }
+        Assert.assertArrayEquals(new long[] {10, 25, 30, 42}, stepIndex.getRanges("3", 60));
+        Assert.assertArrayEquals(new long[] {25, 30}, stepIndex.getRanges("4", 60));
+    }
+
+    @Test
+    public void testCachedPerIndexFile() {
+        Assert.assertSame(StepIndex.forIndexFile(index), StepIndex.forIndexFile(index));
+    }
+}
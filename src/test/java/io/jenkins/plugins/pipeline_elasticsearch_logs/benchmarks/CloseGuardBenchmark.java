@@ -0,0 +1,90 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.benchmarks;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.CloseGuard;
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Compares the cost of guarding writer operations against concurrent close
+ * with {@link CloseGuard} and with the read lock of a {@link
+ * ReentrantReadWriteLock}, which the writers used before. The guarded
+ * operation itself is empty to expose the overhead of the guard, measured
+ * with 1, 2 and 4 threads and with as many threads as there are cores. The
+ * throughput of the guard scales with the threads if the score of the
+ * <code>closeGuard_*</code> benchmarks grows with the number of threads up to
+ * the number of cores, which needs a machine with at least 4 cores.
+ */
+@JmhBenchmark
+public class CloseGuardBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Guards {
+        final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        final CloseGuard closeGuard = new CloseGuard();
+    }
+
+    private static void readLock(Guards guards) {
+        guards.readWriteLock.readLock().lock();
+        guards.readWriteLock.readLock().unlock();
+    }
+
+    private static void closeGuard(Guards guards) {
+        int token = guards.closeGuard.enter();
+        guards.closeGuard.exit(token);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void readLock_1thread(Guards guards) {
+        readLock(guards);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void readLock_2threads(Guards guards) {
+        readLock(guards);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void readLock_4threads(Guards guards) {
+        readLock(guards);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void readLock_maxThreads(Guards guards) {
+        readLock(guards);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void closeGuard_1thread(Guards guards) {
+        closeGuard(guards);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void closeGuard_2threads(Guards guards) {
+        closeGuard(guards);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void closeGuard_4threads(Guards guards) {
+        closeGuard(guards);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void closeGuard_maxThreads(Guards guards) {
+        closeGuard(guards);
+    }
+}
@@ -0,0 +1,103 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.benchmarks;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils.SharedEventWriterFactory;
+import jenkins.benchmark.jmh.JmhBenchmark;
+
+/**
+ * Measures the contention of {@link SharedEventWriterFactory} when many
+ * threads push events through their own proxies of the same shared writer, as
+ * parallel branches of a run do. Compare the single-threaded with the
+ * multi-threaded results: without contention the throughput per thread stays
+ * about the same.
+ */
+@JmhBenchmark
+public class SharedEventWriterFactoryBenchmark {
+
+    private static final Map<String, Object> EVENT = Collections.singletonMap("message", "benchmark");
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+        SharedEventWriterFactory factory;
+        EventWriter keepAlive;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Blackhole blackhole = new Blackhole(
+                "Today's password is swordfish. I understand instantiating Blackholes directly is dangerous."
+            );
+            factory = new SharedEventWriterFactory(() -> new EventWriter() {
+                @Override
+                public void push(Map<String, Object> data) {
+                    blackhole.consume(data);
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            // prevents the shared instance from being closed and re-created
+            keepAlive = factory.createEventWriter();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            keepAlive.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ProxyState {
+        EventWriter proxy;
+
+        @Setup(Level.Iteration)
+        public void setup(SharedState shared) {
+            proxy = shared.factory.createEventWriter();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws Exception {
+            proxy.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void push_1thread(ProxyState state) throws Exception {
+        state.proxy.push(EVENT);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void push_maxThreads(ProxyState state) throws Exception {
+        state.proxy.push(EVENT);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void createPushClose_1thread(SharedState state) throws Exception {
+        EventWriter proxy = state.factory.createEventWriter();
+        proxy.push(EVENT);
+        proxy.close();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void createPushClose_maxThreads(SharedState state) throws Exception {
+        EventWriter proxy = state.factory.createEventWriter();
+        proxy.push(EVENT);
+        proxy.close();
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Vector;
 
 import org.apache.tools.ant.util.StringUtils;
@@ -39,6 +40,32 @@ public class AssertionUtils {
         }
     }
 
+    /**
+     * Like {@link #assertMatchEntries(JSONArray, AbstractList)}, but the events
+     * of the flow graph, which are sent asynchronously, may be interleaved
+     * differently with the other events. The events of the flow graph and the
+     * other events are each expected in the given order.
+     */
+    public static void assertMatchEntriesInAnyInterleaving(JSONArray expectedLog, AbstractList<String> actualEntries) {
+        JSONArray expectedFlowGraphEvents = new JSONArray();
+        JSONArray expectedOtherEvents = new JSONArray();
+        for (int i = 0; i < expectedLog.size(); i++) {
+            JSONObject expected = expectedLog.getJSONObject(i);
+            (isFlowGraphEvent(expected) ? expectedFlowGraphEvents : expectedOtherEvents).add(expected);
+        }
+        ArrayList<String> actualFlowGraphEvents = new ArrayList<>();
+        ArrayList<String> actualOtherEvents = new ArrayList<>();
+        for (String actual : actualEntries) {
+            (isFlowGraphEvent(JSONObject.fromObject(actual.trim())) ? actualFlowGraphEvents : actualOtherEvents).add(actual);
+        }
+        assertMatchEntries(expectedFlowGraphEvents, actualFlowGraphEvents);
+        assertMatchEntries(expectedOtherEvents, actualOtherEvents);
+    }
+
+    private static boolean isFlowGraphEvent(JSONObject event) {
+        return event.optString("eventType").startsWith("flowGraph::");
+    }
+
     private static void assertMatchStringContains(AbstractList<String> expectedEntries, AbstractList<String> actualEntries) {
         for (int i = 0; i < expectedEntries.size(); i++) {
             String actual = actualEntries.get(i).trim();
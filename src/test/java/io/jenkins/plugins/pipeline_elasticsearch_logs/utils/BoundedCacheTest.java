@@ -0,0 +1,88 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    private final AtomicLong clock = new AtomicLong(0);
+
+    @Test
+    public void testPutIfAbsentReturnsExistingValue() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 1000, clock::get);
+        String first = new String("value");
+        String second = new String("value");
+
+        Assert.assertSame(first, cache.putIfAbsent("key", first));
+        Assert.assertSame(first, cache.putIfAbsent("key", second));
+        Assert.assertSame(first, cache.get("key"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRemove() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 1000, clock::get);
+        cache.putIfAbsent("key", "value");
+
+        cache.remove("key");
+
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyAccessed() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, 1000, clock::get);
+        cache.putIfAbsent("a", "A");
+        cache.putIfAbsent("b", "B");
+        // access "a" so that "b" becomes the eldest entry
+        cache.get("a");
+
+        cache.putIfAbsent("c", "C");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void testEntriesExpireIfNotAccessed() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 1000, clock::get);
+        cache.putIfAbsent("a", "A");
+        cache.putIfAbsent("b", "B");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        Assert.assertEquals("A", cache.get("a"));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        // "b" has not been accessed for 1200ms, "a" for 600ms
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("A", cache.get("a"));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeStaysBoundedForManyRuns() {
+        // simulates an agent processing many runs without ever getting a
+        // release callback
+        final int maxSize = 100;
+        BoundedCache<String, byte[]> cache = new BoundedCache<>(maxSize, 60_000, clock::get);
+
+        for (int i = 0; i < 100_000; i++) {
+            cache.putIfAbsent("run-" + i, new byte[1024]);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+            Assert.assertTrue(cache.size() <= maxSize);
+        }
+
+        Assert.assertEquals(maxSize, cache.size());
+        Assert.assertNotNull(cache.get("run-99999"));
+        Assert.assertNull(cache.get("run-0"));
+    }
+}
@@ -0,0 +1,71 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileUtilsTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("index", null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private String readLastLine(String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return FileUtils.readLastLine(file);
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        Assert.assertNull(readLastLine(""));
+    }
+
+    @Test
+    public void testSingleLine() throws IOException {
+        Assert.assertEquals("0 2", readLastLine("0 2\n"));
+        Assert.assertEquals("0 2", readLastLine("0 2"));
+    }
+
+    @Test
+    public void testMultipleLines() throws IOException {
+        Assert.assertEquals("123 5", readLastLine("0 2\n50\n123 5\n"));
+        Assert.assertEquals("123 5", readLastLine("0 2\n50\n123 5"));
+        Assert.assertEquals("", readLastLine("0 2\n\n"));
+        Assert.assertEquals("50", readLastLine("0 2\r\n50\r\n"));
+    }
+
+    @Test
+    public void testMultiByteCharacters() throws IOException {
+        Assert.assertEquals("7 ä€", readLastLine("0 x\n7 ä€\n"));
+    }
+
+    @Test
+    public void testLinesSpanningBlocks() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            content.append(i * 10).append(' ').append(i).append('\n');
+        }
+        Assert.assertEquals("99990 9999", readLastLine(content.toString()));
+
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            longLine.append('x');
+        }
+        Assert.assertEquals(longLine.toString(), readLastLine("0 1\n" + longLine + "\n"));
+        Assert.assertEquals(longLine.toString(), readLastLine(longLine + "\n"));
+    }
+}
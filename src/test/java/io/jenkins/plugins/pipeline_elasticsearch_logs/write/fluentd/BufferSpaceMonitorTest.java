@@ -0,0 +1,78 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.fluentd;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferSpaceMonitorTest {
+
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAwaitSpaceTimesOutIfNothingIsFlushed() throws Exception {
+        BufferSpaceMonitor monitor = new BufferSpaceMonitor(() -> 100L, executor, SAMPLE_INTERVAL_NANOS);
+
+        boolean result = monitor.awaitSpace(TimeUnit.MILLISECONDS.toNanos(50));
+
+        Assert.assertFalse(result);
+        Assert.assertTrue(monitor.getBlockedNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testAwaitSpaceReturnsWhenBufferedDataDecreases() throws Exception {
+        AtomicLong bufferedDataSize = new AtomicLong(100);
+        BufferSpaceMonitor monitor = new BufferSpaceMonitor(bufferedDataSize::get, executor, SAMPLE_INTERVAL_NANOS);
+
+        Future<Boolean> waiter = executor.submit(() -> monitor.awaitSpace(TimeUnit.SECONDS.toNanos(30)));
+        Thread.sleep(50);
+        Assert.assertFalse(waiter.isDone());
+
+        bufferedDataSize.set(10);
+
+        Assert.assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAllWaitersGetSignalled() throws Exception {
+        AtomicLong bufferedDataSize = new AtomicLong(100);
+        BufferSpaceMonitor monitor = new BufferSpaceMonitor(bufferedDataSize::get, executor, SAMPLE_INTERVAL_NANOS);
+
+        Future<Boolean> waiter1 = executor.submit(() -> monitor.awaitSpace(TimeUnit.SECONDS.toNanos(30)));
+        Future<Boolean> waiter2 = executor.submit(() -> monitor.awaitSpace(TimeUnit.SECONDS.toNanos(30)));
+        Thread.sleep(50);
+
+        bufferedDataSize.set(0);
+
+        Assert.assertTrue(waiter1.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(waiter2.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWaiterIsSignalledWithinMaxAwaitForDefaultFlushAttemptInterval() throws Exception {
+        AtomicLong bufferedDataSize = new AtomicLong(100);
+        // the default of FluentdEventWriterConfig
+        BufferSpaceMonitor monitor = BufferSpaceMonitor.forFlushAttemptInterval(bufferedDataSize::get, executor, 500);
+
+        for (int i = 0; i < 10; i++) {
+            Future<Boolean> waiter = executor.submit(() -> monitor.awaitSpace(monitor.getMaxAwaitNanos()));
+            Thread.sleep(10);
+            bufferedDataSize.decrementAndGet();
+
+            // false if the waiter timed out
+            Assert.assertTrue(waiter.get(10, TimeUnit.SECONDS));
+        }
+    }
+}
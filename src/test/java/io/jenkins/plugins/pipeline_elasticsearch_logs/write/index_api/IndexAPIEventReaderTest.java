@@ -0,0 +1,91 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.index_api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.read.EventReader;
+import net.sf.json.JSONObject;
+
+public class IndexAPIEventReaderTest {
+
+    private HttpServer server;
+
+    private final AtomicReference<String> requestPath = new AtomicReference<>();
+    private final AtomicReference<String> requestBody = new AtomicReference<>();
+    private volatile int responseCode = 200;
+    private volatile String responseBody = "{\"hits\":{\"hits\":[]}}";
+
+    @Before
+    public void setUp() throws IOException {
+        // a stand-in for the Elasticsearch Search API
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requestPath.set(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+            try (InputStream in = exchange.getRequestBody()) {
+                requestBody.set(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            byte[] response = responseBody.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(responseCode, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private EventReader createReader(String path) throws Exception {
+        String indexUrl = "http://localhost:" + server.getAddress().getPort() + path;
+        IndexAPIEventWriterConfig config = new IndexAPIEventWriterConfig(indexUrl, null, null, null, null, null);
+        return new IndexAPIEventWriterRunConfig(config).createEventReader();
+    }
+
+    @Test
+    public void testGetSearchUrl() throws Exception {
+        Assert.assertEquals(new URI("https://host:9200/jenkins/_search"), IndexAPIEventReader.getSearchUrl(new URI("https://host:9200/jenkins/_doc")));
+        Assert.assertEquals(new URI("https://host:9200/jenkins/_search"), IndexAPIEventReader.getSearchUrl(new URI("https://host:9200/jenkins/_doc/")));
+        Assert.assertEquals(new URI("https://host:9200/jenkins/_search"), IndexAPIEventReader.getSearchUrl(new URI("https://host:9200/jenkins")));
+        Assert.assertEquals(new URI("https://host/es/jenkins/_search"), IndexAPIEventReader.getSearchUrl(new URI("https://host/es/jenkins/_doc")));
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        responseBody = "{\"hits\":{\"hits\":[{\"_source\":{\"message\":\"line\"},\"sort\":[1,2]}]}}";
+        JSONObject request = JSONObject.fromObject("{\"size\":10}");
+
+        try (EventReader reader = createReader("/index1/_doc")) {
+            JSONObject response = reader.search(request);
+
+            Assert.assertEquals("POST /index1/_search", requestPath.get());
+            Assert.assertEquals(request, JSONObject.fromObject(requestBody.get()));
+            Assert.assertEquals("line", response.getJSONObject("hits").getJSONArray("hits").getJSONObject(0).getJSONObject("_source").getString("message"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSearchFails() throws Exception {
+        responseCode = 400;
+        responseBody = "{\"error\":\"bad request\"}";
+
+        try (EventReader reader = createReader("/index1/_doc")) {
+            reader.search(JSONObject.fromObject("{\"size\":10}"));
+        }
+    }
+}
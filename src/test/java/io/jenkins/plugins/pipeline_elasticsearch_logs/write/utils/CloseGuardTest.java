@@ -0,0 +1,115 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CloseGuardTest {
+
+    @Test
+    public void testEnterAndExit() {
+        CloseGuard guard = new CloseGuard();
+        int token = guard.enter();
+        guard.exit(token);
+
+        Assert.assertTrue(guard.close());
+        Assert.assertTrue(guard.isClosed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEnterAfterCloseFails() {
+        CloseGuard guard = new CloseGuard();
+        guard.close();
+        guard.enter();
+    }
+
+    @Test
+    public void testCloseTwiceReturnsFalse() {
+        CloseGuard guard = new CloseGuard();
+        Assert.assertTrue(guard.close());
+        Assert.assertFalse(guard.close());
+    }
+
+    @Test
+    public void testCloseWaitsForOperationsInProgress() throws Exception {
+        CloseGuard guard = new CloseGuard();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean isOperationFinished = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            executor.submit(() -> {
+                int token = guard.enter();
+                try {
+                    entered.countDown();
+                    release.await();
+                    isOperationFinished.set(true);
+                } finally {
+                    guard.exit(token);
+                }
+                return null;
+            });
+            entered.await();
+
+            Future<Boolean> closed = executor.submit(guard::close);
+            Thread.sleep(50);
+            Assert.assertFalse(closed.isDone());
+
+            release.countDown();
+            Assert.assertTrue(closed.get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(isOperationFinished.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNoOperationRunsAfterClose() throws Exception {
+        final int threadCount = 8;
+        CloseGuard guard = new CloseGuard(2);
+        AtomicBoolean isClosed = new AtomicBoolean(false);
+        AtomicInteger violations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(executor.submit(() -> {
+                    while (true) {
+                        int token;
+                        try {
+                            token = guard.enter();
+                        } catch (IllegalStateException e) {
+                            return null;
+                        }
+                        try {
+                            if (isClosed.get()) {
+                                violations.incrementAndGet();
+                            }
+                        } finally {
+                            guard.exit(token);
+                        }
+                    }
+                }));
+            }
+            Thread.sleep(50);
+            guard.close();
+            isClosed.set(true);
+
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(0, violations.get());
+    }
+}
@@ -0,0 +1,136 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+
+public class EventWriterPoolTest {
+
+    private static class RecordingEventWriter implements EventWriter {
+        final List<Map<String, Object>> events = new ArrayList<>();
+        int flushCount = 0;
+        boolean isClosed = false;
+
+        @Override
+        public synchronized void push(Map<String, Object> data) throws IOException {
+            events.add(data);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            flushCount++;
+        }
+
+        @Override
+        public synchronized void close() throws Exception {
+            isClosed = true;
+        }
+    }
+
+    private final List<RecordingEventWriter> createdWriters = new ArrayList<>();
+
+    private EventWriterFactory recordingFactory() {
+        return () -> {
+            RecordingEventWriter writer = new RecordingEventWriter();
+            createdWriters.add(writer);
+            return writer;
+        };
+    }
+
+    @Test
+    public void testSameDestinationSharesWriter() throws Exception {
+        int sizeBefore = EventWriterPool.size();
+
+        EventWriter run1 = EventWriterPool.createEventWriter("testSameDestinationSharesWriter", recordingFactory());
+        EventWriter run2 = EventWriterPool.createEventWriter("testSameDestinationSharesWriter", recordingFactory());
+        run1.push(Collections.singletonMap("run", 1));
+        run2.push(Collections.singletonMap("run", 2));
+
+        Assert.assertEquals(1, createdWriters.size());
+        Assert.assertEquals(2, createdWriters.get(0).events.size());
+        Assert.assertEquals(sizeBefore + 1, EventWriterPool.size());
+
+        run1.close();
+        Assert.assertEquals("closing a run's writer must flush its events", 1, createdWriters.get(0).flushCount);
+        Assert.assertFalse(createdWriters.get(0).isClosed);
+
+        run2.close();
+        Assert.assertTrue(createdWriters.get(0).isClosed);
+        Assert.assertEquals(sizeBefore, EventWriterPool.size());
+    }
+
+    @Test
+    public void testFlushOnlyWaitsForEventsOfTheRun() throws Exception {
+        EventWriter run1 = EventWriterPool.createEventWriter("testFlushOnlyWaitsForEventsOfTheRun", recordingFactory());
+        EventWriter run2 = EventWriterPool.createEventWriter("testFlushOnlyWaitsForEventsOfTheRun", recordingFactory());
+        EventWriter run3 = EventWriterPool.createEventWriter("testFlushOnlyWaitsForEventsOfTheRun", recordingFactory());
+        RecordingEventWriter shared = createdWriters.get(0);
+        run1.push(Collections.singletonMap("run", 1));
+        run2.push(Collections.singletonMap("run", 2));
+
+        run2.flush();
+        Assert.assertEquals(1, shared.flushCount);
+
+        run3.push(Collections.singletonMap("run", 3));
+        // the event of run 1 has been flushed together with the one of run 2
+        run1.close();
+        Assert.assertEquals(1, shared.flushCount);
+
+        run3.close();
+        Assert.assertEquals(2, shared.flushCount);
+
+        // nothing pushed since the last flush
+        run2.flush();
+        Assert.assertEquals(2, shared.flushCount);
+        run2.close();
+        Assert.assertTrue(shared.isClosed);
+    }
+
+    @Test
+    public void testDifferentDestinationsUseDifferentWriters() throws Exception {
+        EventWriter writer1 = EventWriterPool.createEventWriter("testDifferentDestinations1", recordingFactory());
+        EventWriter writer2 = EventWriterPool.createEventWriter("testDifferentDestinations2", recordingFactory());
+
+        Assert.assertEquals(2, createdWriters.size());
+
+        writer1.close();
+        writer2.close();
+        Assert.assertTrue(createdWriters.get(0).isClosed);
+        Assert.assertTrue(createdWriters.get(1).isClosed);
+    }
+
+    @Test
+    public void testNewWriterIsCreatedAfterLastOneWasClosed() throws Exception {
+        EventWriter writer1 = EventWriterPool.createEventWriter("testNewWriterIsCreated", recordingFactory());
+        writer1.close();
+        EventWriter writer2 = EventWriterPool.createEventWriter("testNewWriterIsCreated", recordingFactory());
+        writer2.push(Collections.singletonMap("a", "b"));
+        writer2.close();
+
+        Assert.assertEquals(2, createdWriters.size());
+        Assert.assertEquals(0, createdWriters.get(0).events.size());
+        Assert.assertEquals(1, createdWriters.get(1).events.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPushAfterCloseFails() throws Exception {
+        EventWriter writer = EventWriterPool.createEventWriter("testPushAfterCloseFails", recordingFactory());
+        writer.close();
+        writer.push(Collections.singletonMap("a", "b"));
+    }
+
+    @Test
+    public void testDigestDoesNotContainInput() {
+        String digest = EventWriterPool.digest("secret".getBytes(), null);
+        Assert.assertFalse(digest.contains("secret"));
+        Assert.assertEquals(digest, EventWriterPool.digest("secret".getBytes(), null));
+        Assert.assertNotEquals(digest, EventWriterPool.digest(null, "secret".getBytes()));
+    }
+}
@@ -0,0 +1,167 @@
+package io.jenkins.plugins.pipeline_elasticsearch_logs.write.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.jenkins.plugins.pipeline_elasticsearch_logs.write.EventWriter;
+
+public class SharedEventWriterFactoryTest {
+
+    private static class CountingEventWriter implements EventWriter {
+        final AtomicLong pushCount = new AtomicLong();
+        final AtomicInteger closeCount = new AtomicInteger();
+
+        @Override
+        public void push(Map<String, Object> data) throws IOException {
+            if (closeCount.get() > 0) {
+                throw new IllegalStateException("object is closed already");
+            }
+            pushCount.incrementAndGet();
+        }
+
+        @Override
+        public void close() throws Exception {
+            closeCount.incrementAndGet();
+        }
+    }
+
+    private final List<CountingEventWriter> createdWriters = Collections.synchronizedList(new ArrayList<>());
+
+    private SharedEventWriterFactory newFactory() {
+        return new SharedEventWriterFactory(() -> {
+            CountingEventWriter writer = new CountingEventWriter();
+            createdWriters.add(writer);
+            return writer;
+        });
+    }
+
+    @Test
+    public void testSharedInstanceIsClosedWithLastProxy() throws Exception {
+        SharedEventWriterFactory factory = newFactory();
+
+        EventWriter proxy1 = factory.createEventWriter();
+        EventWriter proxy2 = factory.createEventWriter();
+        Assert.assertEquals(1, createdWriters.size());
+
+        proxy1.close();
+        Assert.assertEquals(0, createdWriters.get(0).closeCount.get());
+        proxy2.push(Collections.singletonMap("a", "b"));
+
+        proxy2.close();
+        Assert.assertEquals(1, createdWriters.get(0).closeCount.get());
+        Assert.assertEquals(1, createdWriters.get(0).pushCount.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCloseTwiceFails() throws Exception {
+        EventWriter proxy = newFactory().createEventWriter();
+        proxy.close();
+        proxy.close();
+    }
+
+    @Test
+    public void testRetiredFactoryDoesNotCreateWriters() throws Exception {
+        SharedEventWriterFactory factory = newFactory();
+        EventWriter proxy = factory.createEventWriter();
+        Assert.assertFalse(factory.retireIfUnused());
+
+        proxy.close();
+        Assert.assertTrue(factory.retireIfUnused());
+        Assert.assertNull(factory.tryCreateEventWriter());
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final int threadCount = 8;
+        final int iterations = 2000;
+        SharedEventWriterFactory factory = newFactory();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        EventWriter proxy = factory.createEventWriter();
+                        proxy.push(Collections.singletonMap("i", i));
+                        proxy.push(Collections.singletonMap("i", i));
+                        proxy.close();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long totalPushes = 0;
+        for (CountingEventWriter writer : createdWriters) {
+            Assert.assertEquals("each shared instance must be closed exactly once", 1, writer.closeCount.get());
+            totalPushes += writer.pushCount.get();
+        }
+        Assert.assertEquals(2L * threadCount * iterations, totalPushes);
+    }
+
+    @Test
+    public void testConcurrentFlushesShareFlushOfSharedInstance() throws Exception {
+        CountDownLatch flushStarted = new CountDownLatch(1);
+        CountDownLatch flushReleased = new CountDownLatch(1);
+        AtomicInteger flushCount = new AtomicInteger();
+        SharedEventWriterFactory factory = new SharedEventWriterFactory(() -> new CountingEventWriter() {
+            @Override
+            public void flush() throws IOException {
+                flushCount.incrementAndGet();
+                flushStarted.countDown();
+                try {
+                    flushReleased.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        EventWriter proxy1 = factory.createEventWriter();
+        EventWriter proxy2 = factory.createEventWriter();
+        proxy1.push(Collections.singletonMap("a", "b"));
+        proxy2.push(Collections.singletonMap("a", "b"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> flush1 = pool.submit(() -> {
+                proxy1.flush();
+                return null;
+            });
+            Assert.assertTrue(flushStarted.await(10, TimeUnit.SECONDS));
+            // covered by the flush in progress
+            Future<?> flush2 = pool.submit(() -> {
+                proxy2.flush();
+                return null;
+            });
+            flushReleased.countDown();
+            flush1.get(10, TimeUnit.SECONDS);
+            flush2.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(1, flushCount.get());
+    }
+}